@@ -1,12 +1,18 @@
 package com.leclowndu93150.structures_tweaker;
 
+import com.leclowndu93150.structures_tweaker.cache.PersistentStructureIndex;
 import com.leclowndu93150.structures_tweaker.cache.StructureCache;
 import com.leclowndu93150.structures_tweaker.command.ServerCommands;
 import com.leclowndu93150.structures_tweaker.command.ShowStructureCommand;
 import com.leclowndu93150.structures_tweaker.compat.CompatManager;
 import com.leclowndu93150.structures_tweaker.compat.arsnouveau.ArsNouveauCompat;
 import com.leclowndu93150.structures_tweaker.config.core.StructureConfigManager;
+import com.leclowndu93150.structures_tweaker.data.AsyncSavedData;
 import com.leclowndu93150.structures_tweaker.data.EmptyChunksData;
+import com.leclowndu93150.structures_tweaker.data.LevelStructureContext;
+import com.leclowndu93150.structures_tweaker.data.ModAttachments;
+import com.leclowndu93150.structures_tweaker.data.StructureBlocksData;
+import com.leclowndu93150.structures_tweaker.data.StructureJournal;
 import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
 import com.leclowndu93150.structures_tweaker.render.StructureBoxRenderer;
 //import dev.architectury.event.events.common.BlockEvent;
@@ -41,16 +47,24 @@ public class StructuresTweaker {
         structureCache = new StructureCache();
         structureEventHandler = new StructureEventHandler(configManager, structureCache);
 
+        ModAttachments.ATTACHMENT_TYPES.register(modEventBus);
+
         StructureEventHandler.setInstance(structureEventHandler);
 
         NeoForge.EVENT_BUS.register(this);
-        NeoForge.EVENT_BUS.register(structureCache);
         NeoForge.EVENT_BUS.register(structureEventHandler);
+        NeoForge.EVENT_BUS.register(structureCache);
+        NeoForge.EVENT_BUS.register(structureEventHandler.getPlayerTracker());
         if(FMLLoader.getDist().isClient()){
             NeoForge.EVENT_BUS.register(StructureBoxRenderer.class);
             NeoForge.EVENT_BUS.register(ShowStructureCommand.class);
         }
         NeoForge.EVENT_BUS.register(EmptyChunksData.class);
+        NeoForge.EVENT_BUS.register(StructureBlocksData.class);
+        NeoForge.EVENT_BUS.register(LevelStructureContext.class);
+        NeoForge.EVENT_BUS.register(StructureJournal.class);
+        NeoForge.EVENT_BUS.register(AsyncSavedData.class);
+        NeoForge.EVENT_BUS.register(PersistentStructureIndex.class);
 
         CompatManager.registerCompat(new ArsNouveauCompat());
         CompatManager.initializeCompat();
@@ -73,6 +87,9 @@ public class StructuresTweaker {
         structureCache.clearCache();
         configManager.generateConfigs();
         configManager.loadConfigs();
+        structureCache.setMaxEntriesPerDimension(configManager.getPerformanceConfig().structureCacheMaxEntries);
+        event.getServer().getAllLevels().forEach(level ->
+                structureCache.loadPrebuiltIndex(level, structureCache.getIdTable()::normalize));
         structureEventHandler.reloadFlags();
         ServerCommands.setConfigManager(configManager);
         configManager.setConfigUpdateListener(structureEventHandler::updateStructureFlag);
@@ -80,6 +97,8 @@ public class StructuresTweaker {
 
     @SubscribeEvent
     public void onServerStopped(ServerStoppedEvent event) {
+        structureCache.stopIndexing();
         structureCache.clearCache();
+        structureCache.closePersistentIndexes();
     }
 }
\ No newline at end of file
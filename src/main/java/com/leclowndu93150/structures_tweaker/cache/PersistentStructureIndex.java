@@ -0,0 +1,456 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.data.EmptyChunksData;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.storage.LevelResource;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.function.UnaryOperator;
+
+/**
+ * Structure index of a dimension that survives restarts, stored the way vanilla stores chunks:
+ * one {@code r.<x>.<z>.sti} file per 512x512 region under {@code data/structures_tweaker_index}.
+ * Each file is a short header followed by fixed-size records (palette index, start chunk and
+ * bounding box), one for every structure start whose bounds overlap the region, and structure
+ * names live in a shared palette so records stay valid when registry ids shift.
+ * <p>
+ * A region file is read and decoded once, on first use, into its own {@link StructureSpatialIndex},
+ * so lookups are lock-free, allocate nothing and pick the lowest registry index where structures
+ * overlap; the most recently used regions are kept, so a region being queried is never evicted
+ * in favour of one that was merely decoded later. New starts are recorded by
+ * {@link StructureCache} as chunks referencing them load and as the resolver finds them; they are
+ * added to the decoded region, buffered, and appended to the region files when the level saves.
+ * Files are only read and written outside the index lock. The index only knows structures that
+ * have been seen since it was created, so a miss still falls back to the resolver.
+ * <p>
+ * The directory is tagged with the {@link EmptyChunksData} registry and datapack fingerprint and
+ * is wiped when it opens under a different one, since recorded bounds came from the old worldgen.
+ */
+public final class PersistentStructureIndex {
+    private static final Logger LOGGER = LogManager.getLogger(StructuresTweaker.MODID);
+    public static final String DIRECTORY = "structures_tweaker_index";
+    private static final String PALETTE_FILE = "palette.txt";
+    private static final String FINGERPRINT_FILE = "fingerprint.txt";
+    private static final int MAGIC = 0x53545249;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    // palette index, start chunk x/z, bounding box, reserved
+    private static final int RECORD_BYTES = 40;
+    private static final int MAX_DECODED_REGIONS = 32;
+
+    private final Path directory;
+    private final String fingerprint;
+    private boolean fingerprintSaved;
+    private final Registry<Structure> registry;
+    private final UnaryOperator<ResourceLocation> normalizer;
+    private final List<String> names = new ArrayList<>();
+    private final Object2IntMap<String> palette = new Object2IntOpenHashMap<>();
+    private final IntArrayList registryIds = new IntArrayList();
+    private final List<ResourceLocation> normalized = new ArrayList<>();
+    private int savedPaletteSize;
+    // Records not yet on disk, and the ones a running flush is writing; both guarded by this
+    private Long2ObjectMap<ByteBuffer> pending = new Long2ObjectOpenHashMap<>();
+    private Long2ObjectMap<ByteBuffer> writing = new Long2ObjectOpenHashMap<>();
+    // Completed flushes, so a region read racing one can tell its file may be missing records
+    private volatile int flushes;
+    private final Object flushLock = new Object();
+    private final Map<Long, DecodedRegion> decoded = new ConcurrentHashMap<>();
+    private final AtomicLong useClock = new AtomicLong();
+
+    private static final class DecodedRegion {
+        final StructureSpatialIndex index;
+        volatile long lastUsed;
+
+        DecodedRegion(StructureSpatialIndex index, long lastUsed) {
+            this.index = index;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private PersistentStructureIndex(Path directory, String fingerprint, Registry<Structure> registry, UnaryOperator<ResourceLocation> normalizer) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.registry = registry;
+        this.normalizer = normalizer;
+        this.palette.defaultReturnValue(-1);
+    }
+
+    public static PersistentStructureIndex open(ServerLevel level, UnaryOperator<ResourceLocation> normalizer) {
+        Path directory = DimensionType.getStorageFolder(level.dimension(), level.getServer().getWorldPath(LevelResource.ROOT))
+                .resolve("data").resolve(DIRECTORY);
+        String fingerprint = EmptyChunksData.computeFingerprint(level.getServer());
+        PersistentStructureIndex index = new PersistentStructureIndex(directory, fingerprint, level.registryAccess().registryOrThrow(Registries.STRUCTURE), normalizer);
+        if (Files.isDirectory(directory)) {
+            String saved = readFingerprint(directory.resolve(FINGERPRINT_FILE));
+            if (fingerprint.equals(saved)) {
+                index.fingerprintSaved = true;
+            } else {
+                LOGGER.info("Structure registry changed since {} was written, rebuilding it", directory);
+                clearDirectory(directory);
+            }
+        }
+        Path paletteFile = directory.resolve(PALETTE_FILE);
+        if (Files.isRegularFile(paletteFile)) {
+            try {
+                for (String name : Files.readAllLines(paletteFile)) {
+                    index.paletteIndex(name);
+                }
+                index.savedPaletteSize = index.names.size();
+            } catch (IOException e) {
+                LOGGER.error("Failed to read structure index palette {}: {}", paletteFile, e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the indexed instance with the lowest registry index whose bounds contain the
+     * position, or null; reads the region file the first time the region is queried
+     */
+    @Nullable
+    public StructureInstance findAt(int x, int y, int z) {
+        return region(StructureSpatialIndex.regionKey(x >> StructureSpatialIndex.REGION_SHIFT, z >> StructureSpatialIndex.REGION_SHIFT))
+                .findAt(x, y, z);
+    }
+
+    /**
+     * Records a structure start in every region its bounds overlap, unless it is already indexed there
+     */
+    public void record(ResourceLocation structure, int chunkX, int chunkZ, BoundingBox box) {
+        int minRx = box.minX() >> StructureSpatialIndex.REGION_SHIFT;
+        int maxRx = box.maxX() >> StructureSpatialIndex.REGION_SHIFT;
+        int minRz = box.minZ() >> StructureSpatialIndex.REGION_SHIFT;
+        int maxRz = box.maxZ() >> StructureSpatialIndex.REGION_SHIFT;
+        // Decode first, outside the lock, so duplicates can be told apart without file reads under it
+        for (int rx = minRx; rx <= maxRx; rx++) {
+            for (int rz = minRz; rz <= maxRz; rz++) {
+                region(StructureSpatialIndex.regionKey(rx, rz));
+            }
+        }
+
+        synchronized (this) {
+            int paletteIndex = paletteIndex(structure.toString());
+            int registryId = registryIds.getInt(paletteIndex);
+            long id = registryId >= 0 ? StructureInstanceId.of(registryId, chunkX, chunkZ) : StructureInstanceId.NONE;
+            for (int rx = minRx; rx <= maxRx; rx++) {
+                for (int rz = minRz; rz <= maxRz; rz++) {
+                    long region = StructureSpatialIndex.regionKey(rx, rz);
+                    // A region evicted meanwhile just gets the record again; decoding drops duplicates
+                    DecodedRegion decodedRegion = decoded.get(region);
+                    StructureSpatialIndex index = decodedRegion != null ? decodedRegion.index : null;
+                    if (index != null && id != StructureInstanceId.NONE) {
+                        if (index.get(id) != null) continue;
+                        index.insert(new StructureInstance(id, normalized.get(paletteIndex), box));
+                    }
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES)
+                            .putInt(paletteIndex).putInt(chunkX).putInt(chunkZ)
+                            .putInt(box.minX()).putInt(box.minY()).putInt(box.minZ())
+                            .putInt(box.maxX()).putInt(box.maxY()).putInt(box.maxZ())
+                            .putInt(0);
+                    append(pending, region, record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends buffered records to their region files, writing new palette entries first so a
+     * record never references a name that is missing on disk. Records that could not be written
+     * stay buffered for the next save.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<String> paletteSnapshot;
+            Long2ObjectMap<ByteBuffer> batch;
+            synchronized (this) {
+                if (pending.isEmpty() && names.size() == savedPaletteSize) {
+                    return;
+                }
+                paletteSnapshot = names.size() != savedPaletteSize ? List.copyOf(names) : null;
+                batch = pending;
+                pending = new Long2ObjectOpenHashMap<>();
+                writing = batch;
+            }
+
+            boolean paletteWritten = false;
+            LongList written = new LongArrayList();
+            try {
+                Files.createDirectories(directory);
+                if (!fingerprintSaved) {
+                    Files.writeString(directory.resolve(FINGERPRINT_FILE), fingerprint);
+                    fingerprintSaved = true;
+                }
+                if (paletteSnapshot != null) {
+                    Path paletteFile = directory.resolve(PALETTE_FILE);
+                    Path temp = directory.resolve(PALETTE_FILE + ".tmp");
+                    Files.write(temp, paletteSnapshot);
+                    try {
+                        Files.move(temp, paletteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temp, paletteFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    paletteWritten = true;
+                }
+
+                for (Long2ObjectMap.Entry<ByteBuffer> entry : batch.long2ObjectEntrySet()) {
+                    writeRecords(entry.getLongKey(), entry.getValue().duplicate().flip());
+                    written.add(entry.getLongKey());
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to write structure index {}: {}", directory, e.getMessage());
+            } finally {
+                synchronized (this) {
+                    if (paletteWritten) {
+                        savedPaletteSize = paletteSnapshot.size();
+                    }
+                    for (int i = 0; i < written.size(); i++) {
+                        batch.remove(written.getLong(i));
+                    }
+                    // Unwritten records go back in front of anything recorded since
+                    Long2ObjectMap<ByteBuffer> newer = pending;
+                    pending = batch;
+                    for (Long2ObjectMap.Entry<ByteBuffer> entry : newer.long2ObjectEntrySet()) {
+                        append(pending, entry.getLongKey(), entry.getValue());
+                    }
+                    writing = new Long2ObjectOpenHashMap<>();
+                    flushes++;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+        synchronized (this) {
+            decoded.clear();
+        }
+    }
+
+    public int decodedRegions() {
+        return decoded.size();
+    }
+
+    public synchronized int paletteSize() {
+        return names.size();
+    }
+
+    private int paletteIndex(String name) {
+        int index = palette.getInt(name);
+        if (index < 0) {
+            index = names.size();
+            names.add(name);
+            palette.put(name, index);
+            ResourceLocation id = ResourceLocation.tryParse(name);
+            Structure structure = id != null ? registry.get(id) : null;
+            registryIds.add(structure != null ? registry.getId(structure) : -1);
+            normalized.add(id != null ? normalizer.apply(id) : null);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the decoded region, reading its file outside the lock if it is not decoded yet.
+     * Every call marks the region as used, so eviction drops the least recently used one.
+     */
+    private StructureSpatialIndex region(long region) {
+        DecodedRegion hit = decoded.get(region);
+        if (hit != null) {
+            hit.lastUsed = useClock.incrementAndGet();
+            return hit.index;
+        }
+
+        while (true) {
+            int flushesBefore = flushes;
+            ByteBuffer file = readRegionFile(region);
+            synchronized (this) {
+                hit = decoded.get(region);
+                if (hit != null) {
+                    hit.lastUsed = useClock.incrementAndGet();
+                    return hit.index;
+                }
+                // A flush finishing since the read may have moved records from memory into the file
+                if (flushes != flushesBefore) {
+                    continue;
+                }
+
+                List<StructureInstance> instances = new ArrayList<>();
+                decode(file, HEADER_BYTES, file.limit(), instances);
+                ByteBuffer inFlight = writing.get(region);
+                if (inFlight != null) {
+                    decode(inFlight, 0, inFlight.position(), instances);
+                }
+                ByteBuffer buffered = pending.get(region);
+                if (buffered != null) {
+                    decode(buffered, 0, buffered.position(), instances);
+                }
+                // Unbounded: a decoded region holds every record of its file, eviction is per region
+                StructureSpatialIndex index = new StructureSpatialIndex(Integer.MAX_VALUE);
+                index.bulkLoad(instances);
+
+                if (decoded.size() >= MAX_DECODED_REGIONS) {
+                    evictLeastRecentlyUsed();
+                }
+                decoded.put(region, new DecodedRegion(index, useClock.incrementAndGet()));
+                return index;
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Long oldest = null;
+        long oldestUse = Long.MAX_VALUE;
+        for (Map.Entry<Long, DecodedRegion> entry : decoded.entrySet()) {
+            long lastUsed = entry.getValue().lastUsed;
+            if (lastUsed < oldestUse) {
+                oldestUse = lastUsed;
+                oldest = entry.getKey();
+            }
+        }
+        if (oldest != null) {
+            decoded.remove(oldest);
+        }
+    }
+
+    @Nullable
+    private static String readFingerprint(Path file) {
+        try {
+            return Files.isRegularFile(file) ? Files.readString(file).trim() : null;
+        } catch (IOException e) {
+            LOGGER.error("Failed to read structure index fingerprint {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Deletes every file of an index directory written under another fingerprint
+     */
+    private static void clearDirectory(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to clear structure index {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a region file, or returns an empty buffer if it is missing or unreadable
+     */
+    private ByteBuffer readRegionFile(long region) {
+        Path file = regionFile(region);
+        if (!Files.isRegularFile(file)) {
+            return ByteBuffer.allocate(HEADER_BYTES);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.limit() >= HEADER_BYTES && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                return buffer;
+            }
+            LOGGER.warn("Ignoring unsupported structure index file {}", file);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read structure index file {}: {}", file, e.getMessage());
+        }
+        return ByteBuffer.allocate(HEADER_BYTES);
+    }
+
+    private void decode(ByteBuffer buffer, int start, int end, List<StructureInstance> instances) {
+        for (int offset = start; offset + RECORD_BYTES <= end; offset += RECORD_BYTES) {
+            int paletteIndex = buffer.getInt(offset);
+            if (paletteIndex < 0 || paletteIndex >= names.size() || registryIds.getInt(paletteIndex) < 0) {
+                continue;
+            }
+            instances.add(new StructureInstance(
+                    StructureInstanceId.of(registryIds.getInt(paletteIndex), buffer.getInt(offset + 4), buffer.getInt(offset + 8)),
+                    normalized.get(paletteIndex),
+                    new BoundingBox(buffer.getInt(offset + 12), buffer.getInt(offset + 16), buffer.getInt(offset + 20),
+                            buffer.getInt(offset + 24), buffer.getInt(offset + 28), buffer.getInt(offset + 32))));
+        }
+    }
+
+    private void writeRecords(long region, ByteBuffer records) throws IOException {
+        try (FileChannel channel = FileChannel.open(regionFile(region),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                channel.truncate(0);
+                channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+                size = HEADER_BYTES;
+            } else if ((size - HEADER_BYTES) % RECORD_BYTES != 0) {
+                // Drop a record torn by a crash so later appends stay aligned
+                size -= (size - HEADER_BYTES) % RECORD_BYTES;
+                channel.truncate(size);
+            }
+            channel.position(size);
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        }
+    }
+
+    /**
+     * Appends the written part of a record buffer to the region's buffer in the map
+     */
+    private static void append(Long2ObjectMap<ByteBuffer> buffers, long region, ByteBuffer records) {
+        ByteBuffer source = records.duplicate().flip();
+        ByteBuffer buffered = buffers.get(region);
+        if (buffered == null || buffered.remaining() < source.remaining()) {
+            int used = buffered == null ? 0 : buffered.position();
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(RECORD_BYTES * 4, Integer.highestOneBit(used + source.remaining()) << 1));
+            if (buffered != null) {
+                grown.put(buffered.flip());
+            }
+            buffered = grown;
+            buffers.put(region, buffered);
+        }
+        buffered.put(source);
+    }
+
+    private Path regionFile(long region) {
+        return directory.resolve("r." + (int) region + "." + (int) (region >>> 32) + ".sti");
+    }
+
+    @SubscribeEvent
+    public static void onLevelSave(LevelEvent.Save event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            PersistentStructureIndex index = StructuresTweaker.getStructureCache().getOpenPersistentIndex(level.dimension());
+            if (index != null) {
+                index.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.StructurePiece;
+
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the piece boxes of one structure start, used when a structure
+ * only protects its actual pieces instead of their envelope. Built top-down by splitting the
+ * pieces at the median of the widest axis, and flattened into int arrays in depth-first order:
+ * a node's left child directly follows it and internal nodes store the index of the right one,
+ * so a point query walks O(log pieces) nodes without allocating.
+ */
+public final class PieceBoundsTree {
+    private static final int LEAF_SIZE = 4;
+
+    // Six ints (min x/y/z, max x/y/z) per node and per piece
+    private final int[] nodeBoxes;
+    // Leaves: first piece index; internal nodes: index of the right child
+    private final int[] nodeFirst;
+    // Leaves: piece count; internal nodes: 0
+    private final int[] nodeCount;
+    private final int[] pieceBoxes;
+    private int nodes;
+
+    private PieceBoundsTree(int[] pieceBoxes, int pieceCount) {
+        this.pieceBoxes = pieceBoxes;
+        int maxNodes = Math.max(1, 2 * pieceCount);
+        this.nodeBoxes = new int[maxNodes * 6];
+        this.nodeFirst = new int[maxNodes];
+        this.nodeCount = new int[maxNodes];
+    }
+
+    public static PieceBoundsTree build(List<StructurePiece> pieces) {
+        int[] boxes = new int[pieces.size() * 6];
+        for (int i = 0; i < pieces.size(); i++) {
+            BoundingBox box = pieces.get(i).getBoundingBox();
+            boxes[i * 6] = box.minX();
+            boxes[i * 6 + 1] = box.minY();
+            boxes[i * 6 + 2] = box.minZ();
+            boxes[i * 6 + 3] = box.maxX();
+            boxes[i * 6 + 4] = box.maxY();
+            boxes[i * 6 + 5] = box.maxZ();
+        }
+        PieceBoundsTree tree = new PieceBoundsTree(boxes, pieces.size());
+        tree.buildNode(0, pieces.size());
+        return tree;
+    }
+
+    /**
+     * Whether any piece contains the position
+     */
+    public boolean contains(int x, int y, int z) {
+        return query(x, y, z, x, y, z, false);
+    }
+
+    /**
+     * Whether any piece intersects the box
+     */
+    public boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return query(minX, minY, minZ, maxX, maxY, maxZ, false);
+    }
+
+    /**
+     * Whether a single piece covers the whole box
+     */
+    public boolean covers(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return query(minX, minY, minZ, maxX, maxY, maxZ, true);
+    }
+
+    private boolean query(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean cover) {
+        return nodes > 0 && query(0, minX, minY, minZ, maxX, maxY, maxZ, cover);
+    }
+
+    // Median splits keep the tree balanced, so recursion depth stays at log2 of the piece count
+    private boolean query(int node, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean cover) {
+        int b = node * 6;
+        if (nodeBoxes[b] > maxX || nodeBoxes[b + 3] < minX
+                || nodeBoxes[b + 1] > maxY || nodeBoxes[b + 4] < minY
+                || nodeBoxes[b + 2] > maxZ || nodeBoxes[b + 5] < minZ) {
+            return false;
+        }
+        if (nodeCount[node] == 0) {
+            return query(node + 1, minX, minY, minZ, maxX, maxY, maxZ, cover)
+                    || query(nodeFirst[node], minX, minY, minZ, maxX, maxY, maxZ, cover);
+        }
+
+        for (int i = nodeFirst[node], end = i + nodeCount[node]; i < end; i++) {
+            int p = i * 6;
+            boolean hit = cover
+                    ? pieceBoxes[p] <= minX && pieceBoxes[p + 3] >= maxX
+                            && pieceBoxes[p + 1] <= minY && pieceBoxes[p + 4] >= maxY
+                            && pieceBoxes[p + 2] <= minZ && pieceBoxes[p + 5] >= maxZ
+                    : pieceBoxes[p] <= maxX && pieceBoxes[p + 3] >= minX
+                            && pieceBoxes[p + 1] <= maxY && pieceBoxes[p + 4] >= minY
+                            && pieceBoxes[p + 2] <= maxZ && pieceBoxes[p + 5] >= minZ;
+            if (hit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int buildNode(int first, int count) {
+        int node = nodes++;
+        int b = node * 6;
+        nodeBoxes[b] = nodeBoxes[b + 1] = nodeBoxes[b + 2] = Integer.MAX_VALUE;
+        nodeBoxes[b + 3] = nodeBoxes[b + 4] = nodeBoxes[b + 5] = Integer.MIN_VALUE;
+        for (int i = first; i < first + count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBoxes[b + axis] = Math.min(nodeBoxes[b + axis], pieceBoxes[i * 6 + axis]);
+                nodeBoxes[b + 3 + axis] = Math.max(nodeBoxes[b + 3 + axis], pieceBoxes[i * 6 + 3 + axis]);
+            }
+        }
+
+        if (count <= LEAF_SIZE) {
+            nodeFirst[node] = first;
+            nodeCount[node] = count;
+            return node;
+        }
+
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (nodeBoxes[b + 3 + a] - nodeBoxes[b + a] > nodeBoxes[b + 3 + axis] - nodeBoxes[b + axis]) {
+                axis = a;
+            }
+        }
+        int half = count / 2;
+        select(first, first + count - 1, first + half, axis);
+
+        nodeCount[node] = 0;
+        buildNode(first, half);
+        nodeFirst[node] = buildNode(first + half, count - half);
+        return node;
+    }
+
+    /**
+     * Partially orders the pieces so the one at {@code k} has the median center on the axis
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            long pivot = center(lo + (hi - lo) / 2, axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (center(i, axis) < pivot) i++;
+                while (center(j, axis) > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private long center(int piece, int axis) {
+        return (long) pieceBoxes[piece * 6 + axis] + pieceBoxes[piece * 6 + 3 + axis];
+    }
+
+    private void swap(int a, int b) {
+        for (int i = 0; i < 6; i++) {
+            int tmp = pieceBoxes[a * 6 + i];
+            pieceBoxes[a * 6 + i] = pieceBoxes[b * 6 + i];
+            pieceBoxes[b * 6 + i] = tmp;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.Structure;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+
+/**
+ * Structure index of a whole dimension built offline by {@link RegionStructureScanner}. Stored as
+ * {@code data/structures_tweaker_structure_index.bin} in the dimension folder with structure names
+ * rather than registry indices, so it stays valid across datapack changes, and loaded into a
+ * read-only {@link StructureSpatialIndex} that {@link StructureCache} falls back to on a miss.
+ * <p>
+ * Can also be built without a server: {@code main <dimension folder>}.
+ */
+public final class PrebuiltStructureIndex {
+    public static final String FILE_NAME = "structures_tweaker_structure_index.bin";
+    private static final int MAGIC = 0x53544958;
+    private static final int VERSION = 1;
+
+    private PrebuiltStructureIndex() {
+    }
+
+    public static Path indexFile(Path dimensionFolder) {
+        return dimensionFolder.resolve("data").resolve(FILE_NAME);
+    }
+
+    /**
+     * Scans the dimension's region files and writes the index; returns the scan result
+     */
+    public static RegionStructureScanner.Result build(Path dimensionFolder, ForkJoinPool pool) throws IOException {
+        RegionStructureScanner.Result result = RegionStructureScanner.scan(dimensionFolder.resolve("region"), pool);
+        write(indexFile(dimensionFolder), result.entries());
+        return result;
+    }
+
+    public static void write(Path file, List<RegionStructureScanner.Entry> entries) throws IOException {
+        Map<String, Integer> palette = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (RegionStructureScanner.Entry entry : entries) {
+            palette.computeIfAbsent(entry.structure(), name -> {
+                names.add(name);
+                return names.size() - 1;
+            });
+        }
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+            out.writeInt(entries.size());
+            for (RegionStructureScanner.Entry entry : entries) {
+                BoundingBox box = entry.bounds();
+                out.writeInt(palette.get(entry.structure()));
+                out.writeInt(entry.chunkX());
+                out.writeInt(entry.chunkZ());
+                out.writeInt(box.minX());
+                out.writeInt(box.minY());
+                out.writeInt(box.minZ());
+                out.writeInt(box.maxX());
+                out.writeInt(box.maxY());
+                out.writeInt(box.maxZ());
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the index into a read-only spatial index, or returns null if there is no index file.
+     * Entries whose structure is no longer registered are skipped, and the stored piece envelopes
+     * are adjusted by their structure the way {@link net.minecraft.world.level.levelgen.structure.StructureStart#getBoundingBox}
+     * does, so they match the bounds the live cache and saved defeated boxes use.
+     * <p>
+     * The whole file is loaded and kept in memory, unbounded by the cache size limit, at about
+     * one {@link StructureInstance} per indexed start; it is meant for pregenerated worlds of
+     * bounded size, not for worlds that keep growing.
+     */
+    @Nullable
+    public static StructureSpatialIndex load(Path file, Registry<Structure> registry, UnaryOperator<ResourceLocation> normalizer) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported structure index " + file);
+            }
+
+            int paletteSize = in.readInt();
+            int[] registryIds = new int[paletteSize];
+            Structure[] structures = new Structure[paletteSize];
+            ResourceLocation[] normalized = new ResourceLocation[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                ResourceLocation name = ResourceLocation.tryParse(in.readUTF());
+                Structure structure = name != null ? registry.get(name) : null;
+                structures[i] = structure;
+                registryIds[i] = structure != null ? registry.getId(structure) : -1;
+                normalized[i] = name != null ? normalizer.apply(name) : null;
+            }
+
+            int count = in.readInt();
+            List<StructureInstance> instances = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int paletteIndex = in.readInt();
+                int chunkX = in.readInt();
+                int chunkZ = in.readInt();
+                BoundingBox box = new BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                if (paletteIndex < 0 || paletteIndex >= paletteSize || registryIds[paletteIndex] < 0) continue;
+                instances.add(new StructureInstance(
+                        StructureInstanceId.of(registryIds[paletteIndex], chunkX, chunkZ),
+                        normalized[paletteIndex],
+                        structures[paletteIndex].adjustBoundingBox(box)));
+            }
+
+            // Sized to hold every entry, so nothing is ever evicted from it
+            StructureSpatialIndex index = new StructureSpatialIndex(Math.max(1, instances.size()));
+            index.bulkLoad(instances);
+            return index;
+        }
+    }
+
+    /**
+     * Standalone entry point: {@code PrebuiltStructureIndex <dimension folder> [threads]}, e.g. the
+     * world folder for the overworld or {@code world/DIM-1} for the nether. Needs the Minecraft
+     * classes on the classpath; the server must not be writing to the world at the same time.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PrebuiltStructureIndex <dimension folder> [threads]");
+            System.exit(1);
+        }
+        Path dimensionFolder = Path.of(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            RegionStructureScanner.Result result = build(dimensionFolder, pool);
+            System.out.printf("Indexed %d structure starts from %d chunks in %d region files in %d ms (%d unreadable chunks)%n",
+                    result.entries().size(), result.chunks(), result.regionFiles(), result.millis(), result.failedChunks());
+            System.out.println("Wrote " + indexFile(dimensionFolder));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
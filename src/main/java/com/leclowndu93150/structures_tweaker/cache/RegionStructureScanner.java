@@ -0,0 +1,173 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads structure starts straight out of a dimension's .mca region files, without loading any
+ * chunk into a level. Each region file is memory-mapped and its 1024 chunk slots are decoded in
+ * parallel; only the "structures.starts" part of each chunk is looked at.
+ */
+public final class RegionStructureScanner {
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int SECTOR_BYTES = 4096;
+    private static final int EXTERNAL_FLAG = 0x80;
+
+    public record Entry(String structure, int chunkX, int chunkZ, BoundingBox bounds) {
+    }
+
+    public record Result(List<Entry> entries, int regionFiles, long chunks, long failedChunks, long millis) {
+    }
+
+    private RegionStructureScanner() {
+    }
+
+    public static Result scan(Path regionDir, ForkJoinPool pool) throws IOException {
+        long started = System.currentTimeMillis();
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(regionDir)) {
+            try (Stream<Path> stream = Files.list(regionDir)) {
+                stream.filter(path -> REGION_NAME.matcher(path.getFileName().toString()).matches()).forEach(files::add);
+            }
+        }
+
+        ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+        LongAdder chunks = new LongAdder();
+        LongAdder failed = new LongAdder();
+        try {
+            pool.submit(() -> files.parallelStream().forEach(file -> scanFile(file, entries, chunks, failed))).get();
+        } catch (Exception e) {
+            throw new IOException("Region scan failed", e);
+        }
+
+        return new Result(new ArrayList<>(entries), files.size(), chunks.sum(), failed.sum(), System.currentTimeMillis() - started);
+    }
+
+    private static void scanFile(Path file, ConcurrentLinkedQueue<Entry> entries, LongAdder chunks, LongAdder failed) {
+        Matcher matcher = REGION_NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) return;
+        int regionX = Integer.parseInt(matcher.group(1));
+        int regionZ = Integer.parseInt(matcher.group(2));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SECTOR_BYTES * 2L) return;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            // Absolute reads only, so the slots can be decoded concurrently from one mapping
+            IntStream.range(0, 1024).parallel().forEach(slot -> {
+                int location = buffer.getInt(slot * 4);
+                if (location == 0) return;
+                chunks.increment();
+                int chunkX = (regionX << 5) + (slot & 31);
+                int chunkZ = (regionZ << 5) + (slot >> 5);
+                try {
+                    CompoundTag chunk = readChunk(buffer, location, file.getParent(), chunkX, chunkZ);
+                    if (chunk != null) {
+                        collectStarts(chunk, entries);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.increment();
+                }
+            });
+        } catch (IOException e) {
+            failed.increment();
+        }
+    }
+
+    @Nullable
+    private static CompoundTag readChunk(MappedByteBuffer buffer, int location, Path dir, int chunkX, int chunkZ) throws IOException {
+        long offset = (long) (location >>> 8) * SECTOR_BYTES;
+        if (offset + 5 > buffer.capacity()) {
+            throw new IOException("Chunk outside of region file");
+        }
+        int length = buffer.getInt((int) offset);
+        byte compression = buffer.get((int) offset + 4);
+
+        InputStream raw;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            Path external = dir.resolve("c." + chunkX + "." + chunkZ + ".mcc");
+            if (!Files.exists(external)) return null;
+            raw = new BufferedInputStream(Files.newInputStream(external));
+            compression &= ~EXTERNAL_FLAG;
+        } else {
+            if (length <= 1 || offset + 4 + length > buffer.capacity()) {
+                throw new IOException("Truncated chunk");
+            }
+            byte[] data = new byte[length - 1];
+            buffer.get((int) offset + 5, data);
+            raw = new ByteArrayInputStream(data);
+        }
+
+        try (DataInputStream in = new DataInputStream(decompress(raw, compression))) {
+            return NbtIo.read(in, NbtAccounter.unlimitedHeap());
+        }
+    }
+
+    private static InputStream decompress(InputStream raw, byte compression) throws IOException {
+        return switch (compression) {
+            case 1 -> new GZIPInputStream(raw);
+            case 2 -> new InflaterInputStream(raw);
+            case 3 -> raw;
+            case 4 -> new LZ4BlockInputStream(raw);
+            default -> throw new IOException("Unknown chunk compression " + compression);
+        };
+    }
+
+    private static void collectStarts(CompoundTag chunk, ConcurrentLinkedQueue<Entry> entries) {
+        CompoundTag starts = chunk.getCompound("structures").getCompound("starts");
+        for (String key : starts.getAllKeys()) {
+            CompoundTag start = starts.getCompound(key);
+            if ("INVALID".equals(start.getString("id"))) continue;
+
+            // The envelope of the start's pieces; StructureStart.getBoundingBox also inflates it for
+            // structures with terrain adaptation, which needs the registry and is applied on load
+            ListTag children = start.getList("Children", Tag.TAG_COMPOUND);
+            int[] box = null;
+            for (int i = 0; i < children.size(); i++) {
+                int[] bb = children.getCompound(i).getIntArray("BB");
+                if (bb.length != 6) continue;
+                if (box == null) {
+                    box = bb.clone();
+                } else {
+                    for (int axis = 0; axis < 3; axis++) {
+                        box[axis] = Math.min(box[axis], bb[axis]);
+                        box[axis + 3] = Math.max(box[axis + 3], bb[axis + 3]);
+                    }
+                }
+            }
+            if (box != null) {
+                entries.add(new Entry(key, start.getInt("ChunkX"), start.getInt("ChunkZ"),
+                        new BoundingBox(box[0], box[1], box[2], box[3], box[4], box[5])));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing long-keyed map for one writer at a time and any number of lock-free readers.
+ * <p>
+ * Memory model: writers must be serialized externally (the owning {@link StructureSpatialIndex}
+ * synchronizes them). A new entry's value is stored with release semantics before its key, and
+ * readers load keys and values with acquire semantics, so a reader that sees a key also sees the
+ * fully constructed value stored for it. Removal releases a null value and leaves the key behind
+ * as a tombstone so concurrent probes keep walking past it. Tables are never resized in place:
+ * the writer fills a new table and publishes it through a volatile field, and readers still on
+ * the old one get a consistent, possibly slightly stale, answer. {@link Long#MIN_VALUE} marks an
+ * empty slot and cannot be used as a key.
+ */
+final class SingleWriterLongMap<V> {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(16);
+    private volatile int size;
+    // Live entries plus tombstones in the current table, writer-only
+    private int used;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        int slot = (int) HashCommon.mix(key) & t.mask;
+        while (true) {
+            long k = (long) KEYS.getAcquire(t.keys, slot);
+            if (k == key) {
+                return (V) VALUES.getAcquire(t.values, slot);
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Writer only: maps the key to a non-null value and returns the previous value
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Table t = table;
+        int slot = (int) HashCommon.mix(key) & t.mask;
+        while (true) {
+            long k = t.keys[slot];
+            if (k == key) {
+                V previous = (V) t.values[slot];
+                VALUES.setRelease(t.values, slot, value);
+                if (previous == null) {
+                    size++;
+                }
+                return previous;
+            }
+            if (k == EMPTY) {
+                break;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+
+        if ((used + 1) * 4 > t.keys.length * 3) {
+            rehash(size + 1);
+            put(key, value);
+            return null;
+        }
+        VALUES.setRelease(t.values, slot, value);
+        KEYS.setRelease(t.keys, slot, key);
+        used++;
+        size++;
+        return null;
+    }
+
+    /**
+     * Writer only: removes the key and returns its value
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Table t = table;
+        int slot = (int) HashCommon.mix(key) & t.mask;
+        while (true) {
+            long k = t.keys[slot];
+            if (k == key) {
+                V previous = (V) t.values[slot];
+                if (previous != null) {
+                    VALUES.setRelease(t.values, slot, null);
+                    size--;
+                }
+                return previous;
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Writer only
+     */
+    public void clear() {
+        table = new Table(16);
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Visits a snapshot of the values; safe from any thread
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> consumer) {
+        Table t = table;
+        for (int slot = 0; slot < t.keys.length; slot++) {
+            if ((long) KEYS.getAcquire(t.keys, slot) != EMPTY) {
+                V value = (V) VALUES.getAcquire(t.values, slot);
+                if (value != null) {
+                    consumer.accept(value);
+                }
+            }
+        }
+    }
+
+    private void rehash(int expected) {
+        Table old = table;
+        Table grown = new Table(HashCommon.arraySize(Math.max(expected, 16), 0.5f));
+        for (int slot = 0; slot < old.keys.length; slot++) {
+            Object value = old.values[slot];
+            if (value == null) continue;
+            int target = (int) HashCommon.mix(old.keys[slot]) & grown.mask;
+            while (grown.keys[target] != EMPTY) {
+                target = (target + 1) & grown.mask;
+            }
+            grown.keys[target] = old.keys[slot];
+            grown.values[target] = value;
+        }
+        used = size;
+        // The volatile write publishes every plain store made into the new table
+        table = grown;
+    }
+}
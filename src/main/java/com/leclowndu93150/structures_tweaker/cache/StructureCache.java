@@ -1,230 +1,458 @@
 package com.leclowndu93150.structures_tweaker.cache;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.config.core.PerformanceConfig;
+import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.dimension.DimensionType;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
-import net.neoforged.neoforge.event.level.ChunkEvent;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
+import net.minecraft.world.level.storage.LevelResource;
 import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.level.ChunkEvent;
+import net.neoforged.neoforge.event.server.ServerAboutToStartEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Arrays;
-import java.util.List;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
 
+/**
+ * Per-dimension structure lookup cache. Besides being filled by the resolver on a miss, it indexes
+ * chunks eagerly as they load: the chunk's structure references are matched to starts on the
+ * server thread using only chunks that are already loaded, the bounds are computed and recorded
+ * in the {@link PersistentStructureIndex} on a small bounded worker pool, and the finished
+ * instances are inserted at the start of the next server tick. When chunks load faster than the
+ * workers keep up, such as during elytra flight, new chunks are dropped from the queue and left
+ * to the resolver instead of piling up.
+ * <p>
+ * Lookups are safe from any thread and never block: the spatial indexes are lock-free for readers
+ * (see {@link StructureSpatialIndex}) and the maps holding them are concurrent. Callers off the
+ * server thread, such as mixins reached from mod worker threads, only see the in-memory and
+ * prebuilt indexes, so a miss there is a plain miss rather than a file lookup.
+ */
 public class StructureCache {
-    private static final int MAX_ENTRIES_PER_DIMENSION = 1000;
-    private final Map<String, StructureBoundCache> dimensionCaches = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LogManager.getLogger(StructuresTweaker.MODID);
+    private static final int INDEXING_QUEUE_SIZE = 256;
+    private final Map<ResourceKey<Level>, StructureSpatialIndex> dimensionCaches = new ConcurrentHashMap<>();
+    private final Map<ResourceKey<Level>, StructureSpatialIndex> prebuiltIndexes = new ConcurrentHashMap<>();
+    private final Map<ResourceKey<Level>, PersistentStructureIndex> persistentIndexes = new ConcurrentHashMap<>();
+    // Sections no structure start overlaps, by dimension; server thread only
+    private final Map<ResourceKey<Level>, LongOpenHashSet> clearSections = new ConcurrentHashMap<>();
+    private static final int MAX_CLEAR_SECTIONS = 1 << 16;
+    private volatile int maxEntriesPerDimension = new PerformanceConfig().structureCacheMaxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ConcurrentLinkedQueue<IndexedStart> indexed = new ConcurrentLinkedQueue<>();
+    private final LongAdder indexedChunks = new LongAdder();
+    private final LongAdder droppedChunks = new LongAdder();
+    private ThreadPoolExecutor indexingExecutor;
+    private volatile BitSet preciseStructures = new BitSet();
+    // Bumped whenever cached instances are dropped, so queued ones built before that are discarded
+    private volatile int generation;
+    private volatile StructureIdTable idTable = StructureIdTable.empty(StructureEventHandler::normalizeStructureId);
 
-    public static class StructureBoundCache {
-        public final Long2ObjectMap<ResourceLocation> structures = new Long2ObjectOpenHashMap<>();
-        public final Long2ObjectMap<BoundingBox> bounds = new Long2ObjectOpenHashMap<>();
-        final Map<ResourceLocation, BoundingBox[]> structureBounds = new ConcurrentHashMap<>();
-        // Cache for fast position checks - maps position to list of structure bounds containing it
-        final Map<ChunkPos, List<StructureInstance>> chunkStructures = new ConcurrentHashMap<>();
+    private record PendingStart(ResourceLocation structure, int registryIndex, boolean precise, StructureStart start, BoundingBox bounds) {
     }
-    
-    public static class StructureInstance {
-        public final ResourceLocation structure;
-        public final BoundingBox bounds;
-        
-        public StructureInstance(ResourceLocation structure, BoundingBox bounds) {
-            this.structure = structure;
-            this.bounds = bounds;
+
+    private record IndexedStart(ResourceKey<Level> dimension, int generation, StructureInstance instance) {
+    }
+
+    /**
+     * Applies a new per-dimension size limit; existing dimension caches are rebuilt lazily
+     */
+    public void setMaxEntriesPerDimension(int maxEntries) {
+        if (maxEntries != maxEntriesPerDimension) {
+            maxEntriesPerDimension = maxEntries;
+            generation++;
+            dimensionCaches.clear();
+            clearSections.clear();
         }
     }
 
-    public void cacheStructure(Level level, BlockPos pos, ResourceLocation structure, BoundingBox bounds) {
-        if (level == null || pos == null || structure == null || bounds == null) {
-            return;
+    /**
+     * Caches a structure instance and returns the cached copy
+     */
+    public StructureInstance cacheStructure(Level level, long id, ResourceLocation structure, BoundingBox bounds) {
+        if (level == null || structure == null || bounds == null) {
+            return null;
+        }
+
+        StructureSpatialIndex index = dimensionCaches.computeIfAbsent(level.dimension(), k -> new StructureSpatialIndex(maxEntriesPerDimension));
+        return index.insert(new StructureInstance(id, structure, bounds));
+    }
+
+    /**
+     * Adds an instance built elsewhere and returns the cached copy
+     */
+    public StructureInstance cacheInstance(Level level, StructureInstance instance) {
+        StructureSpatialIndex index = dimensionCaches.computeIfAbsent(level.dimension(), k -> new StructureSpatialIndex(maxEntriesPerDimension));
+        return index.insert(instance);
+    }
+
+    /**
+     * Builds the instance for a start, with a piece tree if its structure uses precise bounds
+     */
+    public StructureInstance createInstance(long id, ResourceLocation structure, StructureStart start) {
+        boolean precise = preciseStructures.get(StructureInstanceId.registryIndex(id)) && !start.getPieces().isEmpty();
+        return new StructureInstance(id, structure, start.getBoundingBox(), precise ? PieceBoundsTree.build(start.getPieces()) : null);
+    }
+
+    /**
+     * Whether no structure start overlaps the chunk section, so no position in it can be inside a
+     * structure. Sections of chunks with references are checked against their starts once and
+     * remembered until the cache is cleared. Server thread only.
+     */
+    public boolean isSectionClear(ServerLevel level, int sectionX, int sectionY, int sectionZ) {
+        if (!StructureResolver.hasReferences(level, sectionX, sectionZ)) {
+            return true;
+        }
+        LongOpenHashSet clear = clearSections.computeIfAbsent(level.dimension(), k -> new LongOpenHashSet());
+        long key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        if (clear.contains(key)) {
+            return true;
+        }
+        int minX = SectionPos.sectionToBlockCoord(sectionX);
+        int minY = SectionPos.sectionToBlockCoord(sectionY);
+        int minZ = SectionPos.sectionToBlockCoord(sectionZ);
+        if (StructureResolver.anyStartIntersects(level, sectionX, sectionZ, new BoundingBox(minX, minY, minZ, minX + 15, minY + 15, minZ + 15))) {
+            return false;
+        }
+        if (clear.size() >= MAX_CLEAR_SECTIONS) {
+            clear.clear();
         }
+        clear.add(key);
+        return true;
+    }
 
-        String dimensionKey = level.dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.computeIfAbsent(dimensionKey, k -> new StructureBoundCache());
+    /**
+     * Whether the instance answers every position of the chunk section, that is it covers the
+     * section and no other structure start, cached or not, intersects it. Server thread only.
+     */
+    public boolean isSectionCoveredBy(ServerLevel level, StructureInstance instance, int sectionX, int sectionY, int sectionZ) {
+        int minX = SectionPos.sectionToBlockCoord(sectionX);
+        int minY = SectionPos.sectionToBlockCoord(sectionY);
+        int minZ = SectionPos.sectionToBlockCoord(sectionZ);
+        // The section summary is mixed whenever another cached instance crosses the section
+        StructureSpatialIndex index = dimensionCaches.get(level.dimension());
+        StructureInstance covering = index != null ? index.coveringAt(minX, minY, minZ) : null;
+        if (covering == null || covering.id != instance.id) {
+            return false;
+        }
+        // Starts that have not been cached yet are only known to the chunk's references
+        return !StructureResolver.anyOtherStartIntersects(level, sectionX, sectionZ,
+                new BoundingBox(minX, minY, minZ, minX + 15, minY + 15, minZ + 15), instance.id);
+    }
+
+    public boolean isPrecise(ServerLevel level, StructureStart start) {
+        return preciseStructures.get(level.registryAccess().registryOrThrow(Registries.STRUCTURE).getId(start.getStructure()));
+    }
 
-        if (cache.structures.size() >= MAX_ENTRIES_PER_DIMENSION) {
-            cache.structures.clear();
-            cache.bounds.clear();
-            cache.structureBounds.clear();
+    /**
+     * Sets the registry indices of structures that use piece-level bounds; cached instances are
+     * dropped when the set changes since they were built for the old mode. Returns whether it changed.
+     */
+    public boolean setPreciseStructures(BitSet precise) {
+        if (precise.equals(preciseStructures)) {
+            return false;
         }
+        preciseStructures = precise;
+        generation++;
+        dimensionCaches.clear();
+        clearSections.clear();
+        return true;
+    }
 
-        ChunkPos chunkPos = new ChunkPos(pos);
-        cache.structures.put(chunkPos.toLong(), structure);
-        cache.bounds.put(chunkPos.toLong(), bounds);
+    public void clearCache() {
+        generation++;
+        dimensionCaches.clear();
+        clearSections.clear();
+        prebuiltIndexes.clear();
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Returns the cached instance containing the position or null if none is cached
+     */
+    public StructureInstance getInstanceAt(Level level, BlockPos pos) {
+        if (level == null || pos == null) return null;
 
-        cache.structureBounds.compute(structure, (k, v) -> {
-            if (v == null) {
-                return new BoundingBox[]{bounds};
+        StructureSpatialIndex index = dimensionCaches.get(level.dimension());
+        StructureInstance instance = index != null ? index.findAt(pos.getX(), pos.getY(), pos.getZ()) : null;
+        if (instance == null) {
+            // The persistent index reads a region file the first time it is queried and promotion
+            // takes the writer lock, so off-thread callers only read the lock-free prebuilt index
+            boolean serverThread = level instanceof ServerLevel serverLevel && serverLevel.getServer().isSameThread();
+            PersistentStructureIndex persistent = serverThread ? getPersistentIndex((ServerLevel) level) : null;
+            StructureInstance indexed = persistent != null ? persistent.findAt(pos.getX(), pos.getY(), pos.getZ()) : null;
+            if (indexed == null) {
+                StructureSpatialIndex prebuilt = prebuiltIndexes.get(level.dimension());
+                indexed = prebuilt != null ? prebuilt.findAt(pos.getX(), pos.getY(), pos.getZ()) : null;
             }
-            BoundingBox[] newArray = new BoundingBox[v.length + 1];
-            System.arraycopy(v, 0, newArray, 0, v.length);
-            newArray[v.length] = bounds;
-            return newArray;
-        });
+            // Index files only store envelopes, so precise structures must be resolved with their pieces
+            if (indexed != null && !preciseStructures.get(StructureInstanceId.registryIndex(indexed.id))) {
+                // Promote into the live cache so eviction statistics keep covering it
+                instance = serverThread ? cacheStructure(level, indexed.id, indexed.structure, indexed.bounds) : indexed;
+            }
+        }
+        if (instance != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached instance with the given {@link StructureInstanceId}, or null if it is not cached
+     */
+    public StructureInstance getInstance(Level level, long id) {
+        StructureSpatialIndex index = dimensionCaches.get(level.dimension());
+        return index != null ? index.get(id) : null;
+    }
 
-        int minChunkX = bounds.minX() >> 4;
-        int maxChunkX = bounds.maxX() >> 4;
-        int minChunkZ = bounds.minZ() >> 4;
-        int maxChunkZ = bounds.maxZ() >> 4;
+    /**
+     * Returns the spatial index of a dimension, or null if nothing has been cached there yet
+     */
+    public StructureSpatialIndex getIndex(ResourceKey<Level> dimension) {
+        return dimensionCaches.get(dimension);
+    }
 
-        for (int x = minChunkX; x <= maxChunkX; x++) {
-            for (int z = minChunkZ; z <= maxChunkZ; z++) {
-                long chunkKey = ChunkPos.asLong(x, z);
-                cache.structures.put(chunkKey, structure);
-                cache.bounds.put(chunkKey, bounds);
+    /**
+     * Loads the dimension's prebuilt index file, if one has been built, as a fallback for cache misses
+     */
+    public void loadPrebuiltIndex(ServerLevel level, UnaryOperator<ResourceLocation> normalizer) {
+        Path dimensionFolder = DimensionType.getStorageFolder(level.dimension(), level.getServer().getWorldPath(LevelResource.ROOT));
+        try {
+            StructureSpatialIndex index = PrebuiltStructureIndex.load(
+                    PrebuiltStructureIndex.indexFile(dimensionFolder),
+                    level.registryAccess().registryOrThrow(Registries.STRUCTURE),
+                    normalizer);
+            if (index != null) {
+                prebuiltIndexes.put(level.dimension(), index);
+                LOGGER.info("Loaded {} prebuilt structure entries for {}", index.size(), level.dimension().location());
+            } else {
+                prebuiltIndexes.remove(level.dimension());
             }
+        } catch (IOException e) {
+            LOGGER.error("Failed to load prebuilt structure index for {}: {}", level.dimension().location(), e.getMessage());
         }
     }
 
-    public ResourceLocation getStructureAt(Level level, BlockPos pos) {
-        if (level == null || pos == null) {
+    /**
+     * Returns the dimension's persistent index, opening it on first use, or null if it is disabled
+     */
+    @Nullable
+    public PersistentStructureIndex getPersistentIndex(ServerLevel level) {
+        if (!StructuresTweaker.getConfigManager().getPerformanceConfig().persistentStructureIndex) {
             return null;
         }
+        return persistentIndexes.computeIfAbsent(level.dimension(),
+                k -> PersistentStructureIndex.open(level, idTable::normalize));
+    }
 
-        String dimensionKey = level.dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.get(dimensionKey);
-        if (cache == null) return null;
+    @Nullable
+    public PersistentStructureIndex getOpenPersistentIndex(ResourceKey<Level> dimension) {
+        return persistentIndexes.get(dimension);
+    }
 
-        ChunkPos chunkPos = new ChunkPos(pos);
-        long chunkKey = chunkPos.toLong();
+    /**
+     * Records a resolved structure start in the dimension's persistent index
+     */
+    public void recordPersistent(ServerLevel level, ResourceLocation structure, int chunkX, int chunkZ, BoundingBox bounds) {
+        PersistentStructureIndex index = getPersistentIndex(level);
+        if (index != null) {
+            index.record(structure, chunkX, chunkZ, bounds);
+        }
+    }
 
-        ResourceLocation structure = cache.structures.get(chunkKey);
-        if (structure == null) return null;
+    /**
+     * Writes out and closes every persistent index; they are reopened on next use
+     */
+    public void closePersistentIndexes() {
+        persistentIndexes.values().forEach(PersistentStructureIndex::close);
+        persistentIndexes.clear();
+    }
 
-        BoundingBox bounds = cache.bounds.get(chunkKey);
-        if (bounds == null) return null;
+    /**
+     * Returns the canonical id table of the current structure registry
+     */
+    public StructureIdTable getIdTable() {
+        return idTable;
+    }
 
-        if (bounds.isInside(pos)) {
-            return structure;
-        } else {
-            cache.structures.remove(chunkKey);
-            cache.bounds.remove(chunkKey);
-            return null;
-        }
+    /**
+     * Builds the id table before any chunk loads, so spawn chunks are already indexed with it
+     */
+    @SubscribeEvent
+    public void onServerAboutToStart(ServerAboutToStartEvent event) {
+        idTable = StructureIdTable.build(event.getServer().registryAccess().registryOrThrow(Registries.STRUCTURE),
+                StructureEventHandler::normalizeStructureId);
     }
 
     @SubscribeEvent
-    public void onChunkUnload(ChunkEvent.Unload event) {
-        if (!(event.getChunk() instanceof LevelChunk chunk)) {
+    public void onChunkLoad(ChunkEvent.Load event) {
+        if (!(event.getLevel() instanceof ServerLevel level) || !(event.getChunk() instanceof LevelChunk chunk)
+                || !StructuresTweaker.getConfigManager().getPerformanceConfig().eagerStructureIndexing) {
+            return;
+        }
+        Map<Structure, LongSet> references = chunk.getAllReferences();
+        if (references.isEmpty()) {
             return;
         }
 
-        String dimensionKey = chunk.getLevel().dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.get(dimensionKey);
-        if (cache == null) return;
+        // Chunk access and the lazy start bounds are not thread safe, so both are resolved here,
+        // but only for starts in loaded chunks
+        Registry<Structure> registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+        List<PendingStart> pending = new ArrayList<>();
+        for (Map.Entry<Structure, LongSet> entry : references.entrySet()) {
+            ResourceLocation id = registry.getKey(entry.getKey());
+            if (id == null) continue;
+            int registryIndex = registry.getId(entry.getKey());
+            boolean precise = preciseStructures.get(registryIndex);
 
-        long chunkKey = chunk.getPos().toLong();
-        ResourceLocation structure = cache.structures.remove(chunkKey);
-        BoundingBox bounds = cache.bounds.remove(chunkKey);
+            LongIterator iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                long startChunk = iterator.nextLong();
+                int startX = ChunkPos.getX(startChunk);
+                int startZ = ChunkPos.getZ(startChunk);
+                if (getInstance(level, StructureInstanceId.of(registryIndex, startX, startZ)) != null) continue;
 
-        if (structure != null && bounds != null) {
-            cache.structureBounds.computeIfPresent(structure, (k, v) -> {
-                if (v == null || v.length == 0) return null;
-                if (v.length == 1) {
-                    return v[0] != null && v[0].equals(bounds) ? null : v;
+                ChunkAccess startAccess = startChunk == chunk.getPos().toLong() ? chunk : level.getChunkSource().getChunkNow(startX, startZ);
+                StructureStart start = startAccess != null ? startAccess.getStartForStructure(entry.getKey()) : null;
+                if (start != null && start.isValid()) {
+                    pending.add(new PendingStart(id, registryIndex, precise, start, start.getBoundingBox()));
                 }
-                return removeFromArray(v, bounds);
-            });
+            }
         }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ResourceKey<Level> dimension = level.dimension();
+        int queuedGeneration = generation;
+        StructureIdTable table = idTable;
+        PersistentStructureIndex persistent = getPersistentIndex(level);
+        indexingExecutor().execute(() -> {
+            for (PendingStart candidate : pending) {
+                StructureStart start = candidate.start();
+                BoundingBox bounds = candidate.bounds();
+                ChunkPos startPos = start.getChunkPos();
+                if (persistent != null) {
+                    persistent.record(candidate.structure(), startPos.x, startPos.z, bounds);
+                }
+                PieceBoundsTree pieces = candidate.precise() && !start.getPieces().isEmpty() ? PieceBoundsTree.build(start.getPieces()) : null;
+                indexed.add(new IndexedStart(dimension, queuedGeneration, new StructureInstance(
+                        StructureInstanceId.of(candidate.registryIndex(), startPos.x, startPos.z),
+                        table.canonicalId(candidate.registryIndex(), candidate.structure()),
+                        bounds,
+                        pieces)));
+            }
+            indexedChunks.increment();
+        });
     }
 
-    private BoundingBox[] removeFromArray(BoundingBox[] array, BoundingBox toRemove) {
-        if (array == null || toRemove == null) {
-            return array;
+    @SubscribeEvent
+    public void onServerTick(ServerTickEvent.Pre event) {
+        IndexedStart next;
+        while ((next = indexed.poll()) != null) {
+            if (next.generation() != generation) {
+                continue;
+            }
+            ServerLevel level = event.getServer().getLevel(next.dimension());
+            if (level != null) {
+                cacheInstance(level, next.instance());
+            }
         }
-
-        return Arrays.stream(array)
-                .filter(box -> box != null && !box.equals(toRemove))
-                .toArray(BoundingBox[]::new);
     }
 
-    public void clearCache() {
-        dimensionCaches.clear();
+    private synchronized ThreadPoolExecutor indexingExecutor() {
+        if (indexingExecutor == null) {
+            int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 4));
+            AtomicInteger count = new AtomicInteger();
+            indexingExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(INDEXING_QUEUE_SIZE),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "StructuresTweaker-Indexer-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, executor) -> droppedChunks.increment());
+            indexingExecutor.allowCoreThreadTimeOut(true);
+        }
+        return indexingExecutor;
     }
-    
+
     /**
-     * Fast check if a position is within any cached structure bounds
-     * Returns the structure at the position or null if not in a structure
+     * Stops eager indexing and waits for chunks already being indexed, so nothing is recorded
+     * in a persistent index after it has been closed
      */
-    public ResourceLocation getStructureAtPosition(Level level, BlockPos pos) {
-        if (level == null || pos == null) return null;
-        
-        String dimensionKey = level.dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.get(dimensionKey);
-        if (cache == null) return null;
-        
-        ChunkPos chunkPos = new ChunkPos(pos);
-        List<StructureInstance> instances = cache.chunkStructures.get(chunkPos);
-        
-        if (instances != null) {
-            for (StructureInstance instance : instances) {
-                if (instance.bounds.isInside(pos)) {
-                    return instance.structure;
+    public void stopIndexing() {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = indexingExecutor;
+            indexingExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Structure indexing did not finish in time");
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        indexed.clear();
+    }
 
-        return getStructureAt(level, pos);
+    public long getIndexedChunks() {
+        return indexedChunks.sum();
     }
-    
-    /**
-     * Cache structure bounds for fast position checking
-     */
-    public void cacheStructureBounds(Level level, ResourceLocation structure, BoundingBox bounds) {
-        if (level == null || structure == null || bounds == null) return;
-        
-        String dimensionKey = level.dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.computeIfAbsent(dimensionKey, k -> new StructureBoundCache());
-        
-        StructureInstance instance = new StructureInstance(structure, bounds);
 
-        int minChunkX = bounds.minX() >> 4;
-        int maxChunkX = bounds.maxX() >> 4;
-        int minChunkZ = bounds.minZ() >> 4;
-        int maxChunkZ = bounds.maxZ() >> 4;
-        
-        for (int x = minChunkX; x <= maxChunkX; x++) {
-            for (int z = minChunkZ; z <= maxChunkZ; z++) {
-                ChunkPos chunkPos = new ChunkPos(x, z);
-                cache.chunkStructures.computeIfAbsent(chunkPos, k -> Collections.synchronizedList(new ArrayList<>()))
-                    .add(instance);
-            }
-        }
+    public long getDroppedChunks() {
+        return droppedChunks.sum();
     }
-    
-    /**
-     * Get cached bounds for a specific structure at a position
-     */
-    public BoundingBox getCachedBounds(Level level, ResourceLocation structure, BlockPos pos) {
-        if (level == null || structure == null || pos == null) return null;
-        
-        String dimensionKey = level.dimension().location().toString();
-        StructureBoundCache cache = dimensionCaches.get(dimensionKey);
-        if (cache == null) return null;
-        
-        ChunkPos chunkPos = new ChunkPos(pos);
-        List<StructureInstance> instances = cache.chunkStructures.get(chunkPos);
-        
-        if (instances != null) {
-            for (StructureInstance instance : instances) {
-                if (instance.structure.equals(structure) && instance.bounds.isInside(pos)) {
-                    return instance.bounds;
-                }
-            }
-        }
-        
-        // Fallback to chunk-based cache
-        BoundingBox bounds = cache.bounds.get(chunkPos.toLong());
-        if (bounds != null && bounds.isInside(pos)) {
-            return bounds;
-        }
-        
-        return null;
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public Map<ResourceKey<Level>, StructureSpatialIndex> getDimensionCaches() {
+        return Collections.unmodifiableMap(dimensionCaches);
     }
-}
\ No newline at end of file
+}
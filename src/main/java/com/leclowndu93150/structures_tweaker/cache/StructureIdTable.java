@@ -0,0 +1,100 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.levelgen.structure.Structure;
+
+import javax.annotation.Nullable;
+import java.util.function.UnaryOperator;
+
+/**
+ * Canonical ids of the loaded structure registry, built once when the server starts. Structures
+ * are numbered by their registry index, the same dense index packed into
+ * {@link StructureInstanceId}s, so per-structure state can live in plain arrays. The table holds
+ * one shared normalized id per structure, so cache entries and policy lookups never normalize
+ * strings, and maps both raw and normalized ids back to the index.
+ */
+public final class StructureIdTable {
+    public static final int NONE = -1;
+
+    private final ResourceLocation[] canonical;
+    private final Object2IntMap<ResourceLocation> indices;
+    private final UnaryOperator<ResourceLocation> normalizer;
+
+    private StructureIdTable(ResourceLocation[] canonical, Object2IntMap<ResourceLocation> indices, UnaryOperator<ResourceLocation> normalizer) {
+        this.canonical = canonical;
+        this.indices = indices;
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * A table that knows no structures and normalizes every id it is asked about
+     */
+    public static StructureIdTable empty(UnaryOperator<ResourceLocation> normalizer) {
+        return new StructureIdTable(new ResourceLocation[0], indexMap(0), normalizer);
+    }
+
+    public static StructureIdTable build(Registry<Structure> registry, UnaryOperator<ResourceLocation> normalizer) {
+        ResourceLocation[] canonical = new ResourceLocation[registry.size()];
+        Object2IntMap<ResourceLocation> indices = indexMap(registry.size() * 2);
+        for (Structure structure : registry) {
+            ResourceLocation id = registry.getKey(structure);
+            int index = registry.getId(structure);
+            if (id == null || index < 0 || index >= canonical.length) continue;
+            canonical[index] = normalizer.apply(id);
+            indices.put(id, index);
+        }
+        // Normalized ids only fill in where they do not shadow another structure's raw id
+        for (int index = 0; index < canonical.length; index++) {
+            if (canonical[index] != null) {
+                indices.putIfAbsent(canonical[index], index);
+            }
+        }
+        return new StructureIdTable(canonical, indices, normalizer);
+    }
+
+    private static Object2IntMap<ResourceLocation> indexMap(int expected) {
+        Object2IntOpenHashMap<ResourceLocation> indices = new Object2IntOpenHashMap<>(expected);
+        indices.defaultReturnValue(NONE);
+        return indices;
+    }
+
+    public int size() {
+        return canonical.length;
+    }
+
+    /**
+     * Canonical id of the structure at a registry index, or null if there is none
+     */
+    @Nullable
+    public ResourceLocation canonicalId(int index) {
+        return index >= 0 && index < canonical.length ? canonical[index] : null;
+    }
+
+    /**
+     * Canonical id of the structure at a registry index, normalizing the raw id only if the
+     * table does not know the index, e.g. before it is built
+     */
+    public ResourceLocation canonicalId(int index, ResourceLocation rawId) {
+        ResourceLocation known = canonicalId(index);
+        return known != null ? known : normalizer.apply(rawId);
+    }
+
+    /**
+     * Registry index of a raw or canonical structure id, or {@link #NONE}
+     */
+    public int indexOf(ResourceLocation id) {
+        return indices.getInt(id);
+    }
+
+    /**
+     * Canonical form of an id; the shared instance for registered structures, normalized on the
+     * spot for anything else, such as configs of structures that are not loaded
+     */
+    public ResourceLocation normalize(ResourceLocation id) {
+        ResourceLocation known = canonicalId(indexOf(id));
+        return known != null ? known : normalizer.apply(id);
+    }
+}
@@ -0,0 +1,99 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import com.leclowndu93150.structures_tweaker.data.DefeatedStructuresData;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single placed structure: its {@link StructureInstanceId}, (normalized) structure id and the
+ * envelope of its pieces. Structures in precise mode also carry a {@link PieceBoundsTree} and only
+ * contain positions inside one of their pieces. Instances are identified by their id alone.
+ */
+public class StructureInstance {
+    private static final int DEFEATED = -2;
+    private static final int UNCHECKED = -1;
+
+    public final long id;
+    public final ResourceLocation structure;
+    public final BoundingBox bounds;
+    @Nullable
+    public final PieceBoundsTree pieces;
+
+    // CLOCK eviction state, owned by the StructureSpatialIndex holding this instance; lock-free
+    // readers set the reference bit unsynchronized, which at worst makes eviction less accurate
+    boolean referenced = true;
+    int slot = -1;
+    // Defeated state folded into the entry: DEFEATED for good once defeated, otherwise the
+    // defeat change count it was last seen undefeated at. Racing writers store the same answer
+    private volatile int defeatState = UNCHECKED;
+
+    public StructureInstance(long id, ResourceLocation structure, BoundingBox bounds) {
+        this(id, structure, bounds, null);
+    }
+
+    public StructureInstance(long id, ResourceLocation structure, BoundingBox bounds, @Nullable PieceBoundsTree pieces) {
+        this.id = id;
+        this.structure = structure;
+        this.bounds = bounds;
+        this.pieces = pieces;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= bounds.minX() && x <= bounds.maxX()
+                && y >= bounds.minY() && y <= bounds.maxY()
+                && z >= bounds.minZ() && z <= bounds.maxZ()
+                && (pieces == null || pieces.contains(x, y, z));
+    }
+
+    /**
+     * Whether the instance contains any position of the box
+     */
+    public boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return bounds.maxX() >= minX && bounds.minX() <= maxX
+                && bounds.maxY() >= minY && bounds.minY() <= maxY
+                && bounds.maxZ() >= minZ && bounds.minZ() <= maxZ
+                && (pieces == null || pieces.intersects(minX, minY, minZ, maxX, maxY, maxZ));
+    }
+
+    /**
+     * Whether the instance contains every position of the box
+     */
+    public boolean covers(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return bounds.minX() <= minX && bounds.maxX() >= maxX
+                && bounds.minY() <= minY && bounds.maxY() >= maxY
+                && bounds.minZ() <= minZ && bounds.maxZ() >= maxZ
+                && (pieces == null || pieces.covers(minX, minY, minZ, maxX, maxY, maxZ));
+    }
+
+    /**
+     * Whether the instance is defeated, looked up in the data only when a structure has been
+     * defeated since this entry last checked
+     */
+    public boolean isDefeated(DefeatedStructuresData data) {
+        int state = defeatState;
+        if (state == DEFEATED) {
+            return true;
+        }
+        int changes = DefeatedStructuresData.changeCount();
+        if (state == changes) {
+            return false;
+        }
+        boolean defeated = data.isDefeated(this);
+        defeatState = defeated ? DEFEATED : changes;
+        return defeated;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StructureInstance other)) return false;
+        return id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+}
@@ -0,0 +1,117 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.core.Registry;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Packs a structure start into a single long: the structure's registry index in the top 20 bits
+ * and the start chunk's x and z in 22 bits each. A dimension holds at most one start of a given
+ * structure per chunk, so the id is unique per dimension, and 22 bits cover every chunk inside
+ * the 30M block world border.
+ * <p>
+ * Registry indices depend on the loaded datapacks, so persisted ids are written together with a
+ * palette of structure names and remapped to the current indices when read back.
+ */
+public final class StructureInstanceId {
+    public static final long NONE = -1L;
+
+    private static final int COORD_BITS = 22;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int INDEX_SHIFT = COORD_BITS * 2;
+    private static final int INDEX_BITS = 64 - INDEX_SHIFT;
+
+    private StructureInstanceId() {
+    }
+
+    public static long of(int registryIndex, int startChunkX, int startChunkZ) {
+        return ((long) registryIndex << INDEX_SHIFT)
+                | ((startChunkX & COORD_MASK) << COORD_BITS)
+                | (startChunkZ & COORD_MASK);
+    }
+
+    public static long of(Registry<Structure> registry, StructureStart start) {
+        ChunkPos chunk = start.getChunkPos();
+        return of(registry.getId(start.getStructure()), chunk.x, chunk.z);
+    }
+
+    public static int registryIndex(long id) {
+        return (int) (id >>> INDEX_SHIFT);
+    }
+
+    public static int chunkX(long id) {
+        return (int) (id << INDEX_BITS >> (64 - COORD_BITS));
+    }
+
+    public static int chunkZ(long id) {
+        return (int) (id << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    public static long withRegistryIndex(long id, int registryIndex) {
+        return ((long) registryIndex << INDEX_SHIFT) | (id & ((1L << INDEX_SHIFT) - 1));
+    }
+
+    /**
+     * Writes the registry index to structure name mapping for every index used by the ids
+     */
+    public static CompoundTag writePalette(LongCollection ids, Registry<Structure> registry) {
+        CompoundTag palette = new CompoundTag();
+        LongIterator iterator = ids.iterator();
+        while (iterator.hasNext()) {
+            int index = registryIndex(iterator.nextLong());
+            String key = Integer.toString(index);
+            if (palette.contains(key)) continue;
+            Structure structure = registry.byId(index);
+            ResourceLocation name = structure != null ? registry.getKey(structure) : null;
+            if (name != null) {
+                palette.putString(key, name.toString());
+            }
+        }
+        return palette;
+    }
+
+    /**
+     * Maps saved registry indices to current ones; structures that no longer exist are left out
+     */
+    public static Int2IntMap readPalette(CompoundTag palette, Registry<Structure> registry) {
+        Int2IntMap remap = new Int2IntOpenHashMap();
+        for (String key : palette.getAllKeys()) {
+            ResourceLocation name = ResourceLocation.tryParse(palette.getString(key));
+            if (name == null) continue;
+            registry.getOptional(name).ifPresent(structure -> {
+                try {
+                    remap.put(Integer.parseInt(key), registry.getId(structure));
+                } catch (NumberFormatException ignored) {
+                }
+            });
+        }
+        return remap;
+    }
+
+    /**
+     * Remapping function for saved ids; {@link #NONE} is kept as is
+     */
+    public static LongUnaryOperator remapper(Int2IntMap palette) {
+        return id -> id == NONE ? NONE : remap(id, palette);
+    }
+
+    /**
+     * Rewrites a saved id against the current registry, or returns {@link #NONE} if its structure is gone
+     */
+    public static long remap(long id, Int2IntMap palette) {
+        int saved = registryIndex(id);
+        if (!palette.containsKey(saved)) {
+            return NONE;
+        }
+        return withRegistryIndex(id, palette.get(saved));
+    }
+}
@@ -0,0 +1,151 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.status.ChunkStatus;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves structures at a position from the structure references recorded on the chunk,
+ * so the cost scales with the structures touching the chunk instead of the registry size.
+ * Worldgen records a reference on every chunk a start's bounding box overlaps, so the
+ * chunk containing the position is enough to find every candidate.
+ */
+public class StructureResolver {
+
+    /**
+     * Returns the start containing the position, preferring the lowest registry id when
+     * several overlap so results match the old registry-order scan
+     */
+    @Nullable
+    public static StructureStart resolve(ServerLevel level, BlockPos pos) {
+        Map<Structure, LongSet> references = getReferences(level, pos);
+        if (references == null || references.isEmpty()) {
+            return null;
+        }
+
+        Registry<Structure> registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+        StructureStart best = null;
+        int bestId = Integer.MAX_VALUE;
+
+        for (Map.Entry<Structure, LongSet> entry : references.entrySet()) {
+            int id = registry.getId(entry.getKey());
+            if (id >= bestId) continue;
+
+            StructureStart start = findStart(level, pos, entry.getKey(), entry.getValue());
+            if (start != null) {
+                best = start;
+                bestId = id;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns every start containing the position
+     */
+    public static List<StructureStart> resolveAll(ServerLevel level, BlockPos pos) {
+        List<StructureStart> result = new ArrayList<>();
+        Map<Structure, LongSet> references = getReferences(level, pos);
+        if (references == null) {
+            return result;
+        }
+
+        for (Map.Entry<Structure, LongSet> entry : references.entrySet()) {
+            StructureStart start = findStart(level, pos, entry.getKey(), entry.getValue());
+            if (start != null) {
+                result.add(start);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether any structure start's bounding box overlaps the chunk
+     */
+    public static boolean hasReferences(ServerLevel level, int chunkX, int chunkZ) {
+        ChunkAccess chunk = level.getChunk(chunkX, chunkZ, ChunkStatus.STRUCTURE_REFERENCES, false);
+        return chunk != null && !chunk.getAllReferences().isEmpty();
+    }
+
+    @Nullable
+    private static Map<Structure, LongSet> getReferences(ServerLevel level, BlockPos pos) {
+        ChunkAccess chunk = level.getChunk(
+                SectionPos.blockToSectionCoord(pos.getX()),
+                SectionPos.blockToSectionCoord(pos.getZ()),
+                ChunkStatus.STRUCTURE_REFERENCES,
+                false
+        );
+        return chunk != null ? chunk.getAllReferences() : null;
+    }
+
+    /**
+     * Whether any start referenced by the chunk has bounds intersecting the box; starts in
+     * chunks that are not available count as intersecting
+     */
+    public static boolean anyStartIntersects(ServerLevel level, int chunkX, int chunkZ, BoundingBox box) {
+        return anyOtherStartIntersects(level, chunkX, chunkZ, box, StructureInstanceId.NONE);
+    }
+
+    /**
+     * Like {@link #anyStartIntersects}, ignoring the start with the given {@link StructureInstanceId}
+     */
+    public static boolean anyOtherStartIntersects(ServerLevel level, int chunkX, int chunkZ, BoundingBox box, long excluded) {
+        Registry<Structure> registry = excluded != StructureInstanceId.NONE ? level.registryAccess().registryOrThrow(Registries.STRUCTURE) : null;
+        ChunkAccess chunk = level.getChunk(chunkX, chunkZ, ChunkStatus.STRUCTURE_REFERENCES, false);
+        if (chunk == null) {
+            return true;
+        }
+        for (Map.Entry<Structure, LongSet> entry : chunk.getAllReferences().entrySet()) {
+            int registryIndex = registry != null ? registry.getId(entry.getKey()) : -1;
+            LongIterator iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                long startChunk = iterator.nextLong();
+                if (registryIndex >= 0 && StructureInstanceId.of(registryIndex, ChunkPos.getX(startChunk), ChunkPos.getZ(startChunk)) == excluded) {
+                    continue;
+                }
+                ChunkAccess startAccess = level.getChunk(ChunkPos.getX(startChunk), ChunkPos.getZ(startChunk), ChunkStatus.STRUCTURE_STARTS, false);
+                if (startAccess == null) {
+                    return true;
+                }
+                StructureStart start = startAccess.getStartForStructure(entry.getKey());
+                if (start != null && start.isValid() && start.getBoundingBox().intersects(box)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static StructureStart findStart(ServerLevel level, BlockPos pos, Structure structure, LongSet startChunks) {
+        LongIterator iterator = startChunks.iterator();
+        while (iterator.hasNext()) {
+            long startChunk = iterator.nextLong();
+            ChunkAccess startAccess = level.getChunk(
+                    ChunkPos.getX(startChunk),
+                    ChunkPos.getZ(startChunk),
+                    ChunkStatus.STRUCTURE_STARTS
+            );
+            StructureStart start = startAccess.getStartForStructure(structure);
+            if (start != null && start.isValid() && start.getBoundingBox().isInside(pos)) {
+                return start;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,371 @@
+package com.leclowndu93150.structures_tweaker.cache;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-level grid over structure instances for a single dimension.
+ * Instances are bucketed by the 512x512 regions (32x32 chunks, as in vanilla region files)
+ * their bounds overlap, keyed by a packed region long. A structure spanning hundreds of chunks
+ * only touches a handful of regions, so inserts stay cheap and memory is bounded by the number
+ * of instances rather than the area they cover.
+ * <p>
+ * Every bucket is kept ordered by {@link StructureInstanceId}, whose top bits are the registry
+ * index, so where structures overlap (a mineshaft running through a village, say) the one with
+ * the lowest registry index answers, just as in {@link StructureResolver}, no matter in which
+ * order the instances were cached.
+ * <p>
+ * Point queries go through a per-region summary of every 16x16x16 section, built lazily for the
+ * chunk columns that are actually queried: a section is either empty, fully covered by the
+ * instance that answers every position in it, or mixed with the few instances whose bounds cross
+ * it. Most lookups are a single array read, only mixed sections fall back to box tests, and
+ * sections above or below every instance in the region (the surface over an ancient city, say)
+ * are rejected without touching a column at all. A region's summary is discarded whenever an
+ * instance is added to or removed from it.
+ * <p>
+ * The number of instances is capped; once full, a CLOCK sweep evicts an instance that has not
+ * been hit since the hand last passed it, so frequently used structures stay cached.
+ * <p>
+ * Thread safety: queries ({@link #findAt}, {@link #get}) never lock
+ * and may run on any thread, including mod worker threads reaching the cache through mixins.
+ * Writers synchronize on the index, so there is one writer at a time. Both maps are
+ * {@link SingleWriterLongMap}s and regions are immutable once published: adding or removing an
+ * instance replaces the region with a new one, so a reader sees either the old bucket or the new
+ * one, never a half-updated array. Section summaries are derived from a region's immutable bucket
+ * by whichever reader first needs them and published through {@link AtomicReferenceArray}s; two
+ * readers racing on the same section just compute the same value twice. The CLOCK reference bit
+ * is set by readers without synchronization; a lost update only makes eviction slightly less
+ * accurate.
+ */
+public class StructureSpatialIndex {
+    static final int REGION_SHIFT = 9;
+    private static final int REGION_CHUNKS = 1 << (REGION_SHIFT - 4);
+    private static final StructureInstance[] NO_CANDIDATES = new StructureInstance[0];
+    private static final Comparator<StructureInstance> BY_ID = Comparator.comparingLong(instance -> instance.id);
+
+    private final SingleWriterLongMap<Region> regions = new SingleWriterLongMap<>();
+    private final SingleWriterLongMap<StructureInstance> instances = new SingleWriterLongMap<>();
+    private final int capacity;
+    private StructureInstance[] ring = new StructureInstance[16];
+    private int hand;
+    private final LongAdder evictions = new LongAdder();
+
+    public StructureSpatialIndex(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public static long regionKey(int regionX, int regionZ) {
+        return ChunkPos.asLong(regionX, regionZ);
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Adds the instance, or returns the equal instance already indexed
+     */
+    public synchronized StructureInstance insert(StructureInstance instance) {
+        StructureInstance existing = instances.get(instance.id);
+        if (existing != null) {
+            existing.referenced = true;
+            return existing;
+        }
+        if (instances.size() >= capacity) {
+            evictOne();
+        }
+        instances.put(instance.id, instance);
+        addToRing(instance);
+
+        BoundingBox box = instance.bounds;
+        for (int rx = box.minX() >> REGION_SHIFT; rx <= box.maxX() >> REGION_SHIFT; rx++) {
+            for (int rz = box.minZ() >> REGION_SHIFT; rz <= box.maxZ() >> REGION_SHIFT; rz++) {
+                long key = regionKey(rx, rz);
+                Region region = regions.get(key);
+                if (region == null) {
+                    regions.put(key, new Region(new StructureInstance[]{instance}));
+                } else {
+                    StructureInstance[] bucket = region.instances;
+                    int at = insertionPoint(bucket, instance.id);
+                    StructureInstance[] grown = new StructureInstance[bucket.length + 1];
+                    System.arraycopy(bucket, 0, grown, 0, at);
+                    grown[at] = instance;
+                    System.arraycopy(bucket, at, grown, at + 1, bucket.length - at);
+                    regions.put(key, new Region(grown));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Loads many instances at once, building every touched region bucket a single time
+     */
+    public synchronized void bulkLoad(Collection<StructureInstance> toLoad) {
+        Long2ObjectMap<List<StructureInstance>> pending = new Long2ObjectOpenHashMap<>();
+        for (StructureInstance instance : toLoad) {
+            if (instances.containsKey(instance.id)) continue;
+            if (instances.size() >= capacity) {
+                evictOne();
+            }
+            instances.put(instance.id, instance);
+            addToRing(instance);
+            BoundingBox box = instance.bounds;
+            for (int rx = box.minX() >> REGION_SHIFT; rx <= box.maxX() >> REGION_SHIFT; rx++) {
+                for (int rz = box.minZ() >> REGION_SHIFT; rz <= box.maxZ() >> REGION_SHIFT; rz++) {
+                    pending.computeIfAbsent(regionKey(rx, rz), k -> new ArrayList<>()).add(instance);
+                }
+            }
+        }
+
+        for (Long2ObjectMap.Entry<List<StructureInstance>> entry : pending.long2ObjectEntrySet()) {
+            Region region = regions.get(entry.getLongKey());
+            StructureInstance[] bucket = region != null ? region.instances : null;
+            List<StructureInstance> added = entry.getValue();
+            // Instances evicted again while this batch was loading must not be indexed
+            added.removeIf(instance -> instance.slot < 0);
+            if (added.isEmpty()) continue;
+            int offset = bucket == null ? 0 : bucket.length;
+            StructureInstance[] merged = new StructureInstance[offset + added.size()];
+            if (bucket != null) {
+                System.arraycopy(bucket, 0, merged, 0, offset);
+            }
+            for (int i = 0; i < added.size(); i++) {
+                merged[offset + i] = added.get(i);
+            }
+            Arrays.sort(merged, BY_ID);
+            regions.put(entry.getLongKey(), new Region(merged));
+        }
+    }
+
+    public synchronized boolean remove(StructureInstance instance) {
+        StructureInstance stored = instances.remove(instance.id);
+        if (stored == null) {
+            return false;
+        }
+        removeFromRing(stored);
+
+        BoundingBox box = instance.bounds;
+        for (int rx = box.minX() >> REGION_SHIFT; rx <= box.maxX() >> REGION_SHIFT; rx++) {
+            for (int rz = box.minZ() >> REGION_SHIFT; rz <= box.maxZ() >> REGION_SHIFT; rz++) {
+                long key = regionKey(rx, rz);
+                Region region = regions.get(key);
+                if (region == null) continue;
+
+                StructureInstance[] bucket = region.instances;
+                int index = indexOf(bucket, instance);
+                if (index < 0) continue;
+                if (bucket.length == 1) {
+                    regions.remove(key);
+                } else {
+                    StructureInstance[] shrunk = new StructureInstance[bucket.length - 1];
+                    System.arraycopy(bucket, 0, shrunk, 0, index);
+                    System.arraycopy(bucket, index + 1, shrunk, index, bucket.length - index - 1);
+                    regions.put(key, new Region(shrunk));
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        instances.forEachValue(instance -> instance.slot = -1);
+        regions.clear();
+        instances.clear();
+        ring = new StructureInstance[16];
+        hand = 0;
+    }
+
+    @Nullable
+    public StructureInstance get(long id) {
+        return instances.get(id);
+    }
+
+    /**
+     * Point query: returns the instance with the lowest registry index whose bounds contain the position
+     */
+    @Nullable
+    public StructureInstance findAt(int x, int y, int z) {
+        Region region = regions.get(regionKey(x >> REGION_SHIFT, z >> REGION_SHIFT));
+        if (region == null) {
+            return null;
+        }
+        Object summary = region.summaryAt(x, y, z);
+        if (summary instanceof StructureInstance covering) {
+            covering.referenced = true;
+            return covering;
+        }
+        for (StructureInstance instance : (StructureInstance[]) summary) {
+            if (instance.contains(x, y, z)) {
+                instance.referenced = true;
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached instance that answers every position of the section containing the
+     * position, or null if the section is empty or mixed
+     */
+    @Nullable
+    public StructureInstance coveringAt(int x, int y, int z) {
+        Region region = regions.get(regionKey(x >> REGION_SHIFT, z >> REGION_SHIFT));
+        return region != null && region.summaryAt(x, y, z) instanceof StructureInstance covering ? covering : null;
+    }
+
+    private void evictOne() {
+        int size = instances.size();
+        while (size > 0) {
+            if (hand >= size) {
+                hand = 0;
+            }
+            StructureInstance candidate = ring[hand];
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                hand++;
+            } else {
+                remove(candidate);
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    private void addToRing(StructureInstance instance) {
+        int size = instances.size();
+        if (size > ring.length) {
+            StructureInstance[] grown = new StructureInstance[Math.min(Math.max(ring.length * 2, 16), capacity)];
+            System.arraycopy(ring, 0, grown, 0, ring.length);
+            ring = grown;
+        }
+        instance.slot = size - 1;
+        instance.referenced = true;
+        ring[instance.slot] = instance;
+    }
+
+    private void removeFromRing(StructureInstance instance) {
+        int last = instances.size();
+        int slot = instance.slot;
+        if (slot >= 0 && slot < last) {
+            ring[slot] = ring[last];
+            ring[slot].slot = slot;
+        }
+        ring[last] = null;
+        instance.slot = -1;
+    }
+
+    /**
+     * The instances overlapping one region, ordered by id, plus the lazily built section
+     * summary. Never modified after construction except for summary cells.
+     */
+    private static final class Region {
+        final StructureInstance[] instances;
+        private final int minSection;
+        private final int maxSection;
+        private final AtomicReferenceArray<AtomicReferenceArray<Object>> columns = new AtomicReferenceArray<>(REGION_CHUNKS * REGION_CHUNKS);
+
+        Region(StructureInstance[] instances) {
+            this.instances = instances;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (StructureInstance instance : instances) {
+                min = Math.min(min, instance.bounds.minY() >> 4);
+                max = Math.max(max, instance.bounds.maxY() >> 4);
+            }
+            this.minSection = min;
+            this.maxSection = max;
+        }
+
+        /**
+         * Returns the instance covering the whole section containing the position, or the
+         * candidates whose bounds cross it in bucket order
+         */
+        Object summaryAt(int x, int y, int z) {
+            int sectionY = y >> 4;
+            if (sectionY < minSection || sectionY > maxSection) {
+                return NO_CANDIDATES;
+            }
+            int column = ((z >> 4) & (REGION_CHUNKS - 1)) * REGION_CHUNKS + ((x >> 4) & (REGION_CHUNKS - 1));
+            AtomicReferenceArray<Object> cells = columns.get(column);
+            if (cells == null) {
+                columns.compareAndSet(column, null, new AtomicReferenceArray<>(maxSection - minSection + 1));
+                cells = columns.get(column);
+            }
+            Object summary = cells.get(sectionY - minSection);
+            if (summary == null) {
+                summary = summarize(x & ~15, sectionY << 4, z & ~15);
+                cells.lazySet(sectionY - minSection, summary);
+            }
+            return summary;
+        }
+
+        private Object summarize(int minX, int minY, int minZ) {
+            int maxX = minX + 15;
+            int maxY = minY + 15;
+            int maxZ = minZ + 15;
+            StructureInstance[] candidates = null;
+            int count = 0;
+            for (StructureInstance instance : instances) {
+                if (!instance.intersects(minX, minY, minZ, maxX, maxY, maxZ)) {
+                    continue;
+                }
+                // Buckets are ordered by id and the first match wins in findAt, so a fully covering
+                // first candidate answers the whole section
+                if (count == 0 && instance.covers(minX, minY, minZ, maxX, maxY, maxZ)) {
+                    return instance;
+                }
+                if (candidates == null) {
+                    candidates = new StructureInstance[instances.length];
+                }
+                candidates[count++] = instance;
+            }
+            return count == 0 ? NO_CANDIDATES : Arrays.copyOf(candidates, count);
+        }
+    }
+
+    /**
+     * Index at which an instance with the given id keeps the id-ordered bucket sorted
+     */
+    private static int insertionPoint(StructureInstance[] bucket, long id) {
+        int low = 0;
+        int high = bucket.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bucket[mid].id < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int indexOf(StructureInstance[] bucket, StructureInstance instance) {
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i].id == instance.id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
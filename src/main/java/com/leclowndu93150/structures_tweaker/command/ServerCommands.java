@@ -1,10 +1,17 @@
 package com.leclowndu93150.structures_tweaker.command;
 
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.cache.StructureCache;
+import com.leclowndu93150.structures_tweaker.cache.PersistentStructureIndex;
+import com.leclowndu93150.structures_tweaker.cache.PrebuiltStructureIndex;
+import com.leclowndu93150.structures_tweaker.cache.RegionStructureScanner;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import com.leclowndu93150.structures_tweaker.cache.StructureResolver;
 import com.leclowndu93150.structures_tweaker.config.core.StructureConfigManager;
 import com.leclowndu93150.structures_tweaker.config.properties.ConfigProperty;
 import com.leclowndu93150.structures_tweaker.config.properties.ConfigRegistry;
 import com.leclowndu93150.structures_tweaker.data.DefeatedStructuresData;
+import com.leclowndu93150.structures_tweaker.data.LevelStructureContext;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
@@ -15,23 +22,37 @@ import net.minecraft.commands.Commands;
 import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.commands.arguments.ResourceKeyArgument;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Registry;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.dimension.DimensionType;
 import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
+import net.minecraft.world.level.storage.LevelResource;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.common.EventBusSubscriber;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 @EventBusSubscriber(bus = EventBusSubscriber.Bus.GAME)
 public class ServerCommands {
     private static StructureConfigManager configManager;
+    // Builds write the same index file, so only one may run at a time
+    private static final AtomicBoolean INDEX_BUILD_RUNNING = new AtomicBoolean();
     
     public static void setConfigManager(StructureConfigManager manager) {
         configManager = manager;
@@ -41,6 +62,8 @@ public class ServerCommands {
     public static void onCommandRegister(RegisterCommandsEvent event) {
         registerDefeatCommand(event.getDispatcher());
         registerConfigCommand(event.getDispatcher());
+        registerCacheCommand(event.getDispatcher());
+        registerIndexCommand(event.getDispatcher());
     }
 
     private static void registerDefeatCommand(CommandDispatcher<CommandSourceStack> dispatcher) {
@@ -50,25 +73,16 @@ public class ServerCommands {
                         .executes(context -> {
                             ServerLevel level = context.getSource().getLevel();
                             BlockPos pos = BlockPos.containing(context.getSource().getPosition());
-                            boolean found = false;
+                            StructureStart start = StructureResolver.resolve(level, pos);
+                            Registry<Structure> registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+                            ResourceLocation id = start != null ? registry.getKey(start.getStructure()) : null;
 
-                            var registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
-                            for (var structure : registry) {
-                                ResourceLocation id = registry.getKey(structure);
-                                if (id == null) continue;
-
-                                var reference = level.structureManager().getStructureAt(pos, structure);
-                                if (reference.isValid()) {
-                                    DefeatedStructuresData data = DefeatedStructuresData.get(level);
-                                    data.markDefeated(id, reference.getBoundingBox());
-                                    context.getSource().sendSuccess(() ->
-                                            Component.literal("Structure " + id + " marked as defeated!"), true);
-                                    found = true;
-                                    break;
-                                }
-                            }
-
-                            if (!found) {
+                            if (id != null) {
+                                DefeatedStructuresData data = LevelStructureContext.get(level).defeated();
+                                data.markDefeated(StructureInstanceId.of(registry, start));
+                                context.getSource().sendSuccess(() ->
+                                        Component.literal("Structure " + id + " marked as defeated!"), true);
+                            } else {
                                 context.getSource().sendFailure(
                                         Component.literal("No structure found at your position"));
                             }
@@ -77,6 +91,102 @@ public class ServerCommands {
                         })));
     }
     
+    private static void registerCacheCommand(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal("structuretweaker")
+                .then(Commands.literal("cache")
+                        .requires(source -> source.hasPermission(2))
+                        .then(Commands.literal("stats")
+                                .executes(ServerCommands::executeCacheStats))));
+    }
+
+    private static int executeCacheStats(CommandContext<CommandSourceStack> context) {
+        StructureCache cache = StructuresTweaker.getStructureCache();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0.0 : hits * 100.0 / total;
+
+        context.getSource().sendSuccess(() -> Component.literal(String.format(
+                "Structure cache: %d hits, %d misses (%.1f%% hit rate)", hits, misses, hitRate)), false);
+        context.getSource().sendSuccess(() -> Component.literal(String.format(
+                "Eager indexing: %d chunks indexed, %d dropped", cache.getIndexedChunks(), cache.getDroppedChunks())), false);
+
+        cache.getDimensionCaches().forEach((dimension, index) ->
+                context.getSource().sendSuccess(() -> Component.literal(String.format(
+                        "  %s: %d/%d entries, %d evictions",
+                        dimension.location(), index.size(), index.capacity(), index.evictions())), false));
+        context.getSource().getServer().getAllLevels().forEach(level -> {
+            PersistentStructureIndex persistent = cache.getOpenPersistentIndex(level.dimension());
+            if (persistent != null) {
+                context.getSource().sendSuccess(() -> Component.literal(String.format(
+                        "  %s: persistent index with %d structure types, %d decoded regions",
+                        level.dimension().location(), persistent.paletteSize(), persistent.decodedRegions())), false);
+            }
+        });
+        return 1;
+    }
+
+    private static void registerIndexCommand(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal("structuretweaker")
+                .then(Commands.literal("index")
+                        .requires(source -> source.hasPermission(4))
+                        .then(Commands.literal("build")
+                                .executes(ServerCommands::executeIndexBuild))));
+    }
+
+    private static int executeIndexBuild(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        ServerLevel level = source.getLevel();
+        MinecraftServer server = source.getServer();
+        if (!INDEX_BUILD_RUNNING.compareAndSet(false, true)) {
+            source.sendFailure(Component.literal("A structure index build is already running"));
+            return 0;
+        }
+
+        ForkJoinPool pool;
+        Path dimensionFolder;
+        try {
+            // Flush chunks to disk so the region files include everything generated so far
+            server.saveEverything(true, true, false);
+            dimensionFolder = DimensionType.getStorageFolder(level.dimension(), server.getWorldPath(LevelResource.ROOT));
+            // Leave half the cores to the running server
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        } catch (RuntimeException | Error e) {
+            INDEX_BUILD_RUNNING.set(false);
+            throw e;
+        }
+        source.sendSuccess(() -> Component.literal("Building structure index for " + level.dimension().location() + "..."), true);
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return PrebuiltStructureIndex.build(dimensionFolder, pool);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((result, error) -> {
+            pool.shutdown();
+            INDEX_BUILD_RUNNING.set(false);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof UncheckedIOException io) {
+                    cause = io.getCause();
+                }
+                StructuresTweaker.LOGGER.error("Failed to build structure index for {}", level.dimension().location(), cause);
+                String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                server.execute(() -> source.sendFailure(Component.literal("Failed to build structure index: " + message)));
+                return;
+            }
+            server.execute(() -> {
+                StructureCache cache = StructuresTweaker.getStructureCache();
+                cache.loadPrebuiltIndex(level, cache.getIdTable()::normalize);
+                source.sendSuccess(() -> Component.literal(String.format(
+                        "Indexed %d structure starts from %d chunks in %d region files in %d ms (%d unreadable chunks)",
+                        result.entries().size(), result.chunks(), result.regionFiles(), result.millis(), result.failedChunks())), true);
+            });
+        });
+        return 1;
+    }
+
     private static final SuggestionProvider<CommandSourceStack> SUGGEST_STRUCTURES = (context, builder) -> {
         ServerLevel level = context.getSource().getLevel();
         var registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
@@ -91,11 +201,9 @@ public class ServerCommands {
         var registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
         List<String> nearbyStructures = new ArrayList<>();
         
-        for (var structure : registry) {
-            ResourceLocation id = registry.getKey(structure);
-            if (id == null) continue;
-            var reference = level.structureManager().getStructureAt(pos, structure);
-            if (reference.isValid()) {
+        for (StructureStart start : StructureResolver.resolveAll(level, pos)) {
+            ResourceLocation id = registry.getKey(start.getStructure());
+            if (id != null) {
                 nearbyStructures.add(id.toString());
             }
         }
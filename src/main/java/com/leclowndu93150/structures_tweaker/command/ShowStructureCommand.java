@@ -1,6 +1,7 @@
 package com.leclowndu93150.structures_tweaker.command;
 
 import com.leclowndu93150.structures_tweaker.data.EmptyChunksData;
+import com.leclowndu93150.structures_tweaker.data.LevelStructureContext;
 import com.leclowndu93150.structures_tweaker.render.StructureBoxRenderer;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.core.BlockPos;
@@ -55,7 +56,7 @@ public class ShowStructureCommand {
         AtomicBoolean found = new AtomicBoolean(false);
 
         ChunkPos centerChunk = new ChunkPos(pos);
-        EmptyChunksData emptyChunksData = EmptyChunksData.get(serverLevel);
+        EmptyChunksData emptyChunksData = LevelStructureContext.get(serverLevel).emptyChunks();
 
         int searchRadius = 2;
 
@@ -68,7 +69,6 @@ public class ShowStructureCommand {
                 }
 
                 ChunkAccess chunk = serverLevel.getChunk(checkChunk.x, checkChunk.z);
-                boolean structureFound = false;
 
                 chunk.getAllStarts().forEach((structure, structureStart) -> {
                     if (structureStart != null) {
@@ -84,7 +84,7 @@ public class ShowStructureCommand {
                     }
                 });
 
-                if (!structureFound) {
+                if (chunk.getAllReferences().isEmpty()) {
                     emptyChunksData.markEmpty(checkChunk);
                 }
             }
@@ -2,7 +2,10 @@ package com.leclowndu93150.structures_tweaker.compat.arsnouveau.mixin;
 
 import com.hollingsworth.arsnouveau.api.util.BlockUtil;
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.events.QueryContext;
+import com.leclowndu93150.structures_tweaker.events.StructureAction;
 import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
+import com.leclowndu93150.structures_tweaker.events.Verdict;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.LivingEntity;
@@ -13,8 +16,6 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-
 @Mixin(value = BlockUtil.class, remap = false)
 public class BlockUtilMixin {
     
@@ -26,20 +27,13 @@ public class BlockUtilMixin {
         
         Player player = caster instanceof Player ? (Player) caster : null;
         
-        AtomicBoolean shouldCancel = new AtomicBoolean(false);
         StructureEventHandler handler = StructuresTweaker.getEventHandler();
-        
-        if (handler != null) {
-            handler.handleStructureEvent(world, pos, player, (structure, flags) -> {
-                if (!flags.canBreakBlocks()) {
-                    shouldCancel.set(true);
-                    return true;
-                }
-                return false;
-            });
+        if (handler == null) {
+            return;
         }
-        
-        if (shouldCancel.get()) {
+
+        QueryContext.begin().block(world.getBlockState(pos).getBlock());
+        if (handler.query(world, pos, StructureAction.BLOCK_BREAK, player) == Verdict.DENY) {
             cir.setReturnValue(false);
         }
     }
@@ -80,6 +80,10 @@ This means you can:
 
 Boolean/other properties still REPLACE (not merge).
 
+Block and item lists also accept tags with a leading '#', for example
+"blockBreakWhitelist": ["#minecraft:logs", "minecraft:chest"].
+Unknown ids and tags are ignored.
+
 HOW PRIORITY WORKS
 -----------------
 Settings are applied in this order:
@@ -87,6 +91,35 @@ Settings are applied in this order:
 2. Global config 
 3. Mod defaults (if nothing else is set)
 
+PERFORMANCE SETTINGS
+--------------------
+The 'performance.json' file holds server-wide tuning options that do not
+belong to any structure:
+  - structureCacheMaxEntries: structure instances kept in the lookup cache
+    of each dimension. Use '/structuretweaker cache stats' to see hit,
+    miss and eviction counts when sizing it.
+  - journaledPersistence: when true, changes to defeated structures and
+    known-empty chunks are appended to small .journal files next to the
+    world's data files on each save, and the full data file is only
+    rewritten once the journal grows past the data itself.
+  - persistentStructureIndex: when true, every structure start seen
+    while chunks load is recorded in region files under
+    data/structures_tweaker_index, so structure lookups stay fast after
+    a restart instead of being resolved from chunk data again.
+  - eagerStructureIndexing: when true, the structures touching a chunk
+    are indexed on a background thread as soon as it loads, so the first
+    action inside a structure does not have to look it up. During very
+    fast exploration chunks the indexer cannot keep up with are skipped
+    and looked up on first use instead, shown as "dropped" in
+    '/structuretweaker cache stats'.
+
+Large, already explored worlds can pre-index their structures with
+'/structuretweaker index build', which scans the dimension's region files
+in parallel and writes structures_tweaker_structure_index.bin to its data
+folder. The same file can be built offline, with the server stopped, by
+running the PrebuiltStructureIndex class against a dimension folder. The
+index is loaded at server start and answers lookups the cache misses.
+
 AVAILABLE SETTINGS
 -----------------
 """ + generateSettingsDocumentation() + """
@@ -7,7 +7,9 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * A structure config that inherits from global config but can have individual overrides
+ * A structure config that inherits from global config but can have individual overrides.
+ * Global and individual values (including concatenated lists) are merged once on construction,
+ * so reads go straight to the merged values.
  */
 public class InheritedStructureConfig extends StructureConfig {
     private final GlobalStructureConfig globalConfig;
@@ -40,25 +42,6 @@ public class InheritedStructureConfig extends StructureConfig {
         }
     }
     
-    @Override
-    public <T> T getValue(ConfigProperty<T> property) {
-        Object globalValue = globalConfig.getRawValue(property.getKey());
-        Object individualValue = individualOverrides.get(property.getKey());
-        
-        if (globalValue instanceof List && individualValue instanceof List) {
-            List<Object> mergedList = new ArrayList<>();
-            mergedList.addAll((List<?>) globalValue);
-            mergedList.addAll((List<?>) individualValue);
-            return property.convert(mergedList);
-        }
-        
-        if (individualOverrides.containsKey(property.getKey())) {
-            return property.convert(individualValue);
-        }
-
-        return globalConfig.getValue(property);
-    }
-    
     public boolean isOverridden(ConfigProperty<?> property) {
         return individualOverrides.containsKey(property.getKey());
     }
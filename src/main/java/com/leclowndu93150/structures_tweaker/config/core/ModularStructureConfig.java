@@ -142,4 +142,5 @@ public class ModularStructureConfig {
     public boolean allowEnderPearls() { return getValue(ConfigRegistry.ALLOW_ENDER_PEARLS); }
     public boolean allowRiptide() { return getValue(ConfigRegistry.ALLOW_RIPTIDE); }
     public boolean allowCreativeFlight() { return getValue(ConfigRegistry.ALLOW_CREATIVE_FLIGHT); }
+    public boolean precisePieceBounds() { return getValue(ConfigRegistry.PRECISE_PIECE_BOUNDS); }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.leclowndu93150.structures_tweaker.config.core;
+
+/**
+ * Server-wide tuning options stored in performance.json, separate from the per-structure properties
+ */
+public class PerformanceConfig {
+    /**
+     * Maximum number of structure instances kept in the lookup cache of each dimension
+     */
+    public int structureCacheMaxEntries = 4096;
+
+    /**
+     * Append changes to defeated structures, empty chunks and unmigrated placed blocks to a journal
+     * on each save instead of rewriting the whole dataset; takes effect for levels loaded afterwards
+     */
+    public boolean journaledPersistence = true;
+
+    /**
+     * Keep an on-disk index of structure starts per region so lookups survive restarts
+     */
+    public boolean persistentStructureIndex = true;
+
+    /**
+     * Index the structures of each chunk on a worker thread as it loads, before players act in it
+     */
+    public boolean eagerStructureIndexing = true;
+
+    public void sanitize() {
+        if (structureCacheMaxEntries < 16) {
+            structureCacheMaxEntries = 16;
+        }
+    }
+}
@@ -20,13 +20,17 @@ import java.util.concurrent.ConcurrentHashMap;
 public class StructureConfigManager {
     private static final Path CONFIG_DIR = Path.of("config", StructuresTweaker.MODID);
     private static final Path GLOBAL_CONFIG_PATH = CONFIG_DIR.resolve("global.json");
+    private static final Path PERFORMANCE_CONFIG_PATH = CONFIG_DIR.resolve("performance.json");
     private final Map<ResourceLocation, StructureConfig> configCache = new ConcurrentHashMap<>();
     private GlobalStructureConfig globalConfig;
+    private PerformanceConfig performanceConfig = new PerformanceConfig();
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private volatile boolean configsLoaded = false;
     private static final Logger LOGGER = LogManager.getLogger();
 
     public StructureConfigManager() {
+        // Needed before any level data is loaded, which happens before the other configs are read
+        loadOrCreatePerformanceConfig();
     }
 
     public void generateConfigs() {
@@ -74,12 +78,14 @@ public class StructureConfigManager {
         
         // Load global config first
         loadOrCreateGlobalConfig();
+        loadOrCreatePerformanceConfig();
 
         try {
             Files.walk(CONFIG_DIR)
                     .filter(Files::isRegularFile)
                     .filter(path -> path.toString().endsWith(".json"))
                     .filter(path -> !path.equals(GLOBAL_CONFIG_PATH)) // Skip global config
+                    .filter(path -> !path.equals(PERFORMANCE_CONFIG_PATH))
                     .forEach(path -> {
                         try {
                             String relativePath = CONFIG_DIR.relativize(path).toString().replace('\\', '/');
@@ -141,6 +147,10 @@ public class StructureConfigManager {
     public GlobalStructureConfig getGlobalConfig() {
         return globalConfig;
     }
+
+    public PerformanceConfig getPerformanceConfig() {
+        return performanceConfig;
+    }
     
     public boolean setConfigValue(ResourceLocation structureId, String propertyKey, Object value) {
         Path configPath = CONFIG_DIR.resolve(structureId.getNamespace() + "/" + structureId.getPath() + ".json");
@@ -233,6 +243,25 @@ public class StructureConfigManager {
         }
     }
     
+    private void loadOrCreatePerformanceConfig() {
+        try {
+            Files.createDirectories(CONFIG_DIR);
+
+            PerformanceConfig loaded = null;
+            if (Files.exists(PERFORMANCE_CONFIG_PATH)) {
+                loaded = GSON.fromJson(Files.readString(PERFORMANCE_CONFIG_PATH), PerformanceConfig.class);
+            }
+            performanceConfig = loaded != null ? loaded : new PerformanceConfig();
+            performanceConfig.sanitize();
+
+            // Rewrite so options added in newer versions show up with their defaults
+            Files.writeString(PERFORMANCE_CONFIG_PATH, GSON.toJson(performanceConfig));
+        } catch (IOException | JsonParseException e) {
+            LOGGER.error("Failed to load/create performance config: {}", e.getMessage());
+            performanceConfig = new PerformanceConfig();
+        }
+    }
+
     public static class IndividualConfigWrapper {
         private final Map<String, Object> individualOverrides;
         private final String note;
@@ -9,13 +9,21 @@ public class ConfigProperty<T> {
     private final Class<T> type;
     private final String description;
     private final Function<Object, T> converter;
+    private final int index;
+    private final int flagBit;
 
     public ConfigProperty(String key, T defaultValue, Class<T> type, String description) {
+        this(key, defaultValue, type, description, -1, -1);
+    }
+
+    ConfigProperty(String key, T defaultValue, Class<T> type, String description, int index, int flagBit) {
         this.key = key;
         this.defaultValue = defaultValue;
         this.type = type;
         this.description = description;
         this.converter = createConverter(type);
+        this.index = index;
+        this.flagBit = flagBit;
     }
 
     @SuppressWarnings("unchecked")
@@ -48,4 +56,14 @@ public class ConfigProperty<T> {
     public Class<T> getType() { return type; }
     public String getDescription() { return description; }
     public T convert(Object value) { return converter.apply(value); }
+
+    /**
+     * Position of this property in registration order, or -1 if it was never registered
+     */
+    public int getIndex() { return index; }
+
+    /**
+     * Bit assigned to a registered boolean property in compiled flag masks, or -1 for other types
+     */
+    public int getFlagBit() { return flagBit; }
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 package com.leclowndu93150.structures_tweaker.config.properties;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.util.*;
 
 public class ConfigRegistry {
+    private static final Logger LOGGER = LogManager.getLogger();
     private static final Map<String, ConfigProperty<?>> PROPERTIES = new LinkedHashMap<>();
     private static final List<ConfigPropertyRegistration> REGISTRATIONS = new ArrayList<>();
+    private static int nextFlagBit = 0;
     
     public static final ConfigProperty<Boolean> CAN_BREAK_BLOCKS = register(
         "canBreakBlocks", true, Boolean.class, "Allow breaking blocks in structure"
@@ -78,6 +83,10 @@ public class ConfigRegistry {
         "preventMobGriefing", false, Boolean.class, "Prevent mob griefing (e.g., creeper explosions, enderman block picking, wither destruction) in structure"
     );
     
+    public static final ConfigProperty<Boolean> PRECISE_PIECE_BOUNDS = register(
+        "precisePieceBounds", false, Boolean.class, "Only apply rules inside the structure's pieces (e.g., village houses and paths) instead of the whole box around them"
+    );
+    
     @SuppressWarnings("unchecked")
     public static final ConfigProperty<List<String>> INTERACTION_WHITELIST = registerList(
         "interactionWhitelist", new ArrayList<>(), "Blocks that can always be interacted with (e.g., minecraft:lever, minecraft:button)"
@@ -119,7 +128,16 @@ public class ConfigRegistry {
     );
     
     public static <T> ConfigProperty<T> register(String key, T defaultValue, Class<T> type, String description) {
-        ConfigProperty<T> property = new ConfigProperty<>(key, defaultValue, type, description);
+        int flagBit = -1;
+        if (type == Boolean.class) {
+            if (nextFlagBit < Long.SIZE) {
+                flagBit = nextFlagBit++;
+            } else {
+                // Out of packed bits; the property still works, read from the value array instead
+                LOGGER.warn("More than {} boolean config properties, {} will not be packed into the flag bits", Long.SIZE, key);
+            }
+        }
+        ConfigProperty<T> property = new ConfigProperty<>(key, defaultValue, type, description, PROPERTIES.size(), flagBit);
         PROPERTIES.put(key, property);
         REGISTRATIONS.add(new ConfigPropertyRegistration(key, System.currentTimeMillis()));
         return property;
@@ -127,7 +145,7 @@ public class ConfigRegistry {
     
     @SuppressWarnings("unchecked")
     public static ConfigProperty<List<String>> registerList(String key, List<String> defaultValue, String description) {
-        ConfigProperty<List<String>> property = new ConfigProperty<>(key, defaultValue, (Class<List<String>>)(Class<?>)List.class, description);
+        ConfigProperty<List<String>> property = new ConfigProperty<>(key, defaultValue, (Class<List<String>>)(Class<?>)List.class, description, PROPERTIES.size(), -1);
         PROPERTIES.put(key, property);
         REGISTRATIONS.add(new ConfigPropertyRegistration(key, System.currentTimeMillis()));
         return property;
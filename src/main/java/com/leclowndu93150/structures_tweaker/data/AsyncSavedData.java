@@ -0,0 +1,109 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import net.minecraft.core.HolderLookup;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.world.level.saveddata.SavedData;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Saved data whose file is written off the server thread. On save the subclass takes a cheap
+ * snapshot of its state on the server thread and returns an encoder; the NBT encoding and the
+ * disk write then run on a single background thread, writing to a temporary file that is moved
+ * over the real one so a crash never leaves a half-written file behind. A failed write is picked
+ * up by the next save on the server thread, which writes a fresh snapshot.
+ */
+public abstract class AsyncSavedData extends SavedData {
+    private static final Logger LOGGER = LogManager.getLogger(StructuresTweaker.MODID);
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Structures Tweaker Data Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+    private volatile boolean writeFailed;
+
+    /**
+     * Copies whatever the encoder needs; called on the server thread. The returned encoder runs on
+     * the writer thread and must not touch live state.
+     */
+    protected abstract Supplier<CompoundTag> snapshot(HolderLookup.Provider provider);
+
+    /**
+     * Called on the writer thread once the latest snapshot is safely on disk
+     */
+    protected void snapshotWritten() {
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag tag, HolderLookup.Provider provider) {
+        tag.merge(snapshot(provider).get());
+        return tag;
+    }
+
+    @Override
+    public void save(File file, HolderLookup.Provider provider) {
+        // Snapshots of one dataset must reach the disk in order
+        lastWrite.join();
+        if (writeFailed) {
+            writeFailed = false;
+            setDirty();
+        }
+        if (!isDirty()) {
+            return;
+        }
+
+        Supplier<CompoundTag> encoder = snapshot(provider);
+        setDirty(false);
+        lastWrite = CompletableFuture.runAsync(() -> write(file.toPath(), encoder), EXECUTOR);
+    }
+
+    private void write(Path target, Supplier<CompoundTag> encoder) {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            CompoundTag root = new CompoundTag();
+            root.put("data", encoder.get());
+            NbtUtils.addCurrentDataVersion(root);
+            NbtIo.writeCompressed(root, temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            snapshotWritten();
+        } catch (IOException e) {
+            LOGGER.error("Could not save data {}", target, e);
+            writeFailed = true;
+        }
+    }
+
+    /**
+     * Blocks until every queued write has reached the disk
+     */
+    public static void flush() {
+        // The writer is single threaded, so the most recently queued write finishes last
+        CompletableFuture.runAsync(() -> {}, EXECUTOR).join();
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        flush();
+    }
+}
@@ -0,0 +1,147 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.shorts.Short2LongMap;
+import it.unimi.dsi.fastutil.shorts.Short2LongOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Player-placed blocks of a single chunk, sharded by section. Within a section a block is a short
+ * packing its local x/y/z, mapped to the {@link StructureInstanceId} of the structure it was placed
+ * in, so membership and owner lookups are one probe and no position is ever boxed.
+ * Stored on each {@link net.minecraft.world.level.chunk.LevelChunk} as the
+ * {@link ModAttachments#PLACED_BLOCKS} attachment.
+ */
+public class ChunkPlacedBlocks {
+    private final Int2ObjectMap<Short2LongOpenHashMap> sections = new Int2ObjectOpenHashMap<>();
+    private int size;
+
+    static short localKey(int x, int y, int z) {
+        return (short) (((y & 15) << 8) | ((z & 15) << 4) | (x & 15));
+    }
+
+    public boolean contains(int x, int y, int z) {
+        Short2LongOpenHashMap section = sections.get(SectionPos.blockToSectionCoord(y));
+        return section != null && section.containsKey(localKey(x, y, z));
+    }
+
+    /**
+     * Records the block for the owner; returns false if it was already recorded for that owner
+     */
+    public boolean put(int x, int y, int z, long owner) {
+        Short2LongOpenHashMap section = sections.computeIfAbsent(SectionPos.blockToSectionCoord(y), k -> newSection());
+        short key = localKey(x, y, z);
+        boolean present = section.containsKey(key);
+        if (present && section.get(key) == owner) {
+            return false;
+        }
+        section.put(key, owner);
+        if (!present) {
+            size++;
+        }
+        return true;
+    }
+
+    public boolean remove(int x, int y, int z) {
+        int sectionY = SectionPos.blockToSectionCoord(y);
+        Short2LongOpenHashMap section = sections.get(sectionY);
+        if (section == null) {
+            return false;
+        }
+        short key = localKey(x, y, z);
+        if (!section.containsKey(key)) {
+            return false;
+        }
+        section.remove(key);
+        size--;
+        if (section.isEmpty()) {
+            sections.remove(sectionY);
+        }
+        return true;
+    }
+
+    /**
+     * Adds every block of the other chunk that is not already recorded here
+     */
+    public void mergeFrom(ChunkPlacedBlocks other) {
+        for (Int2ObjectMap.Entry<Short2LongOpenHashMap> entry : other.sections.int2ObjectEntrySet()) {
+            Short2LongOpenHashMap section = sections.computeIfAbsent(entry.getIntKey(), k -> newSection());
+            for (Short2LongMap.Entry block : entry.getValue().short2LongEntrySet()) {
+                if (!section.containsKey(block.getShortKey())) {
+                    section.put(block.getShortKey(), block.getLongValue());
+                    size++;
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void collectOwners(LongSet owners) {
+        for (Short2LongOpenHashMap section : sections.values()) {
+            owners.addAll(section.values());
+        }
+    }
+
+    public ListTag save() {
+        ListTag list = new ListTag();
+        for (Int2ObjectMap.Entry<Short2LongOpenHashMap> entry : sections.int2ObjectEntrySet()) {
+            Short2LongOpenHashMap section = entry.getValue();
+            int[] keys = new int[section.size()];
+            long[] owners = new long[section.size()];
+            int i = 0;
+            for (Short2LongMap.Entry block : section.short2LongEntrySet()) {
+                keys[i] = block.getShortKey() & 0xFFFF;
+                owners[i] = block.getLongValue();
+                i++;
+            }
+            CompoundTag sectionTag = new CompoundTag();
+            sectionTag.putInt("y", entry.getIntKey());
+            sectionTag.putIntArray("blocks", keys);
+            sectionTag.putLongArray("owners", owners);
+            list.add(sectionTag);
+        }
+        return list;
+    }
+
+    /**
+     * Reads sections written by {@link #save()}, passing every owner through the remapping function
+     */
+    public static ChunkPlacedBlocks load(ListTag list, LongUnaryOperator remapOwner) {
+        ChunkPlacedBlocks chunk = new ChunkPlacedBlocks();
+        for (int i = 0; i < list.size(); i++) {
+            CompoundTag sectionTag = list.getCompound(i);
+            int[] keys = sectionTag.getIntArray("blocks");
+            long[] owners = sectionTag.getLongArray("owners");
+            if (keys.length == 0 || keys.length != owners.length) continue;
+
+            Short2LongOpenHashMap section = newSection();
+            for (int j = 0; j < keys.length; j++) {
+                section.put((short) keys[j], remapOwner.applyAsLong(owners[j]));
+            }
+            section.trim();
+            chunk.sections.put(sectionTag.getInt("y"), section);
+            chunk.size += section.size();
+        }
+        return chunk;
+    }
+
+    private static Short2LongOpenHashMap newSection() {
+        Short2LongOpenHashMap section = new Short2LongOpenHashMap(4);
+        section.defaultReturnValue(StructureInstanceId.NONE);
+        return section;
+    }
+}
@@ -1,58 +1,150 @@
 package com.leclowndu93150.structures_tweaker.data;
 
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.HolderLookup;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.Structure;
 import net.minecraft.world.level.saveddata.SavedData;
 import net.minecraft.world.level.storage.DimensionDataStorage;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
-public class DefeatedStructuresData extends SavedData {
-    private final Map<ResourceLocation, BoundingBox> defeatedStructures = new HashMap<>();
+/**
+ * Defeated structure instances of a dimension, keyed by {@link StructureInstanceId}. Written on
+ * the server thread only; the sets are replaced rather than modified once loaded, so queries from
+ * other threads can read them without locking.
+ */
+public class DefeatedStructuresData extends AsyncSavedData {
+    private static final String NAME = "structures_tweaker_defeated";
+    private static volatile int changeCount;
+
+    private final MinecraftServer server;
+    private final Registry<Structure> registry;
+    private final StructureJournal journal;
+    private volatile LongOpenHashSet defeated = new LongOpenHashSet();
+    // Entries from the original (structure id, bounding box) format by registry index, migrated
+    // to instance ids the first time an instance of that structure with that box is seen on the
+    // server thread
+    private volatile Int2ObjectMap<BoundingBox> legacyDefeated = Int2ObjectMaps.emptyMap();
+    // Original entries whose structure is not registered, saved back as they were
+    private List<CompoundTag> unresolvedLegacy = List.of();
+
+    private DefeatedStructuresData(ServerLevel level) {
+        this.server = level.getServer();
+        this.registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+        // Records are raw instance ids, so they are only replayed under the registry they were written with
+        this.journal = new StructureJournal(level, NAME, StructuresTweaker.getConfigManager().getPerformanceConfig().journaledPersistence,
+                this::setDirty, EmptyChunksData.fingerprintHash(level.getServer()));
+    }
 
     public static DefeatedStructuresData get(ServerLevel level) {
         DimensionDataStorage storage = level.getDataStorage();
         return storage.computeIfAbsent(
                 new SavedData.Factory<>(
-                        DefeatedStructuresData::new,
-                        (tag, provider) -> load(tag),
+                        () -> {
+                            DefeatedStructuresData data = new DefeatedStructuresData(level);
+                            data.journal.replay(0, data::applyRecord);
+                            return data;
+                        },
+                        (tag, provider) -> load(tag, level),
                         null
                 ),
-                "structures_tweaker_defeated"
+                NAME
         );
     }
 
-    private static DefeatedStructuresData load(CompoundTag tag) {
-        DefeatedStructuresData data = new DefeatedStructuresData();
-        ListTag list = tag.getList("defeated_structures", 10);
+    private static DefeatedStructuresData load(CompoundTag tag, ServerLevel level) {
+        DefeatedStructuresData data = new DefeatedStructuresData(level);
+        Registry<Structure> registry = data.registry;
+
+        Int2IntMap palette = StructureInstanceId.readPalette(tag.getCompound("palette"), registry);
+        long[] ids = tag.contains("defeated", Tag.TAG_BYTE_ARRAY) ? VarIntCodec.decodeSortedLongs(tag.getByteArray("defeated")) : new long[0];
+        for (long id : ids) {
+            long remapped = StructureInstanceId.remap(id, palette);
+            if (remapped != StructureInstanceId.NONE) {
+                data.defeated.add(remapped);
+            }
+        }
 
+        // Original format: the structure id and its six box coordinates per defeated structure
+        Int2ObjectMap<BoundingBox> legacy = new Int2ObjectOpenHashMap<>();
+        List<CompoundTag> unresolved = new ArrayList<>();
+        ListTag list = tag.getList("defeated_structures", Tag.TAG_COMPOUND);
         for (int i = 0; i < list.size(); i++) {
             CompoundTag structureTag = list.getCompound(i);
             ResourceLocation id = ResourceLocation.tryParse(structureTag.getString("id"));
-            if (id != null) {
-                BoundingBox box = new BoundingBox(
-                        structureTag.getInt("minX"),
-                        structureTag.getInt("minY"),
-                        structureTag.getInt("minZ"),
-                        structureTag.getInt("maxX"),
-                        structureTag.getInt("maxY"),
-                        structureTag.getInt("maxZ")
-                );
-                data.defeatedStructures.put(id, box);
+            Structure structure = id != null ? registry.get(id) : null;
+            if (structure == null) {
+                unresolved.add(structureTag);
+                continue;
             }
+            legacy.put(registry.getId(structure), new BoundingBox(
+                    structureTag.getInt("minX"),
+                    structureTag.getInt("minY"),
+                    structureTag.getInt("minZ"),
+                    structureTag.getInt("maxX"),
+                    structureTag.getInt("maxY"),
+                    structureTag.getInt("maxZ")
+            ));
         }
+        data.legacyDefeated = legacy;
+        data.unresolvedLegacy = List.copyOf(unresolved);
+        data.journal.replay(tag.getLong("journal_generation"), data::applyRecord);
         return data;
     }
 
+    // Only replays while loading, before the data is shared, so the set is modified in place
+    private void applyRecord(byte op, long value) {
+        switch (op) {
+            case StructureJournal.OP_ADD -> defeated.add(value);
+            case StructureJournal.OP_REMOVE -> defeated.remove(value);
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    protected Supplier<CompoundTag> snapshot(HolderLookup.Provider provider) {
+        long generation = journal.rotate();
+        LongOpenHashSet current = defeated;
+        long[] ids = current.toLongArray();
+        CompoundTag palette = StructureInstanceId.writePalette(current, registry);
+        ListTag legacy = saveLegacy();
+        return () -> encode(generation, ids, palette, legacy);
+    }
+
     @Override
-    public CompoundTag save(CompoundTag tag, HolderLookup.Provider provider) {
+    protected void snapshotWritten() {
+        journal.snapshotWritten();
+    }
+
+    /**
+     * Entries not migrated yet, in the original format so older versions can still read them
+     */
+    private ListTag saveLegacy() {
         ListTag list = new ListTag();
-        defeatedStructures.forEach((id, box) -> {
+        for (Int2ObjectMap.Entry<BoundingBox> entry : legacyDefeated.int2ObjectEntrySet()) {
+            Structure structure = registry.byId(entry.getIntKey());
+            ResourceLocation id = structure != null ? registry.getKey(structure) : null;
+            if (id == null) continue;
+            BoundingBox box = entry.getValue();
             CompoundTag structureTag = new CompoundTag();
             structureTag.putString("id", id.toString());
             structureTag.putInt("minX", box.minX());
@@ -62,18 +154,81 @@ public class DefeatedStructuresData extends SavedData {
             structureTag.putInt("maxY", box.maxY());
             structureTag.putInt("maxZ", box.maxZ());
             list.add(structureTag);
-        });
-        tag.put("defeated_structures", list);
+        }
+        for (CompoundTag structureTag : unresolvedLegacy) {
+            list.add(structureTag.copy());
+        }
+        return list;
+    }
+
+    private static CompoundTag encode(long generation, long[] ids, CompoundTag palette, ListTag legacy) {
+        CompoundTag tag = new CompoundTag();
+        tag.putLong("journal_generation", generation);
+        tag.putByteArray("defeated", VarIntCodec.encodeSortedLongs(ids));
+        tag.put("palette", palette);
+        if (!legacy.isEmpty()) {
+            tag.put("defeated_structures", legacy);
+        }
         return tag;
     }
 
-    public void markDefeated(ResourceLocation id, BoundingBox box) {
-        defeatedStructures.put(id, box);
-        setDirty();
+    /**
+     * Number of structures marked defeated since startup in any level, so callers caching
+     * decisions can tell when one may have become stale without looking the data up
+     */
+    public static int changeCount() {
+        return changeCount;
+    }
+
+    public void markDefeated(long instanceId) {
+        if (!defeated.contains(instanceId)) {
+            LongOpenHashSet next = withDefeated(instanceId);
+            changeCount++;
+            if (journal.isEnabled()) {
+                journal.append(StructureJournal.OP_ADD, instanceId, next.size());
+            } else {
+                setDirty();
+            }
+        }
+    }
+
+    /**
+     * Publishes a copy of the set with the id added; structures are defeated rarely enough that
+     * copying is cheaper than making every read synchronize
+     */
+    private LongOpenHashSet withDefeated(long instanceId) {
+        LongOpenHashSet next = new LongOpenHashSet(defeated);
+        next.add(instanceId);
+        defeated = next;
+        return next;
+    }
+
+    public boolean isDefeated(long instanceId) {
+        return defeated.contains(instanceId);
     }
 
-    public boolean isDefeated(ResourceLocation id, BoundingBox box) {
-        BoundingBox defeatedBox = defeatedStructures.get(id);
-        return defeatedBox != null && defeatedBox.equals(box);
+    public boolean isDefeated(StructureInstance instance) {
+        if (defeated.contains(instance.id)) {
+            return true;
+        }
+        Int2ObjectMap<BoundingBox> legacy = legacyDefeated;
+        if (legacy.isEmpty()) {
+            return false;
+        }
+        int registryIndex = StructureInstanceId.registryIndex(instance.id);
+        BoundingBox box = legacy.get(registryIndex);
+        if (box == null || !box.equals(instance.bounds)) {
+            return false;
+        }
+        // Other threads only read; the server thread migrates the entry when it next sees it
+        if (server.isSameThread()) {
+            Int2ObjectMap<BoundingBox> remaining = new Int2ObjectOpenHashMap<>(legacy);
+            remaining.remove(registryIndex);
+            legacyDefeated = remaining;
+            withDefeated(instance.id);
+            // Legacy entries only exist in the snapshot, so the migration needs a new one
+            setDirty();
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -1,71 +1,215 @@
 package com.leclowndu93150.structures_tweaker.data;
 
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.HolderLookup;
+import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.LongTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.saveddata.SavedData;
 import net.minecraft.world.level.storage.DimensionDataStorage;
 import net.neoforged.bus.api.SubscribeEvent;
-import net.neoforged.neoforge.event.server.ServerStartedEvent;
+import net.neoforged.neoforge.event.level.ChunkEvent;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
-public class EmptyChunksData extends SavedData {
-    private final Set<Long> emptyChunks = new HashSet<>();
+/**
+ * Negative lookup cache: chunks known to have no structure references, so lookups inside them can
+ * skip resolution entirely. The set is tagged with a fingerprint of the structure registry and the
+ * enabled datapacks, checked whenever it loads, and is only discarded when that fingerprint
+ * changes, so it survives restarts. Structures can still be added to generated chunks later, so a
+ * mark is only trusted while the chunk, if loaded, still has no starts or references.
+ */
+public class EmptyChunksData extends AsyncSavedData {
+    private static final String NAME = "structures_tweaker_empty_chunks";
+
+    private final ServerLevel level;
+    private final LongOpenHashSet emptyChunks = new LongOpenHashSet();
+    private final StructureJournal journal;
+    private String fingerprint = "";
+
+    private EmptyChunksData(ServerLevel level) {
+        this.level = level;
+        this.journal = new StructureJournal(level, NAME, StructuresTweaker.getConfigManager().getPerformanceConfig().journaledPersistence, this::setDirty);
+    }
 
     public static EmptyChunksData get(ServerLevel level) {
         DimensionDataStorage storage = level.getDataStorage();
         return storage.computeIfAbsent(
                 new SavedData.Factory<>(
-                        EmptyChunksData::new,
-                        (tag, provider) -> load(tag),
+                        () -> {
+                            EmptyChunksData data = new EmptyChunksData(level);
+                            data.journal.replay(0, data::applyRecord);
+                            data.validate(computeFingerprint(level.getServer()));
+                            return data;
+                        },
+                        (tag, provider) -> load(tag, level),
                         null
                 ),
-                "structures_tweaker_empty_chunks"
+                NAME
         );
     }
 
-    private static EmptyChunksData load(CompoundTag tag) {
-        EmptyChunksData data = new EmptyChunksData();
-        ListTag list = tag.getList("empty_chunks", 4); // 4 is for long array
-        for (int i = 0; i < list.size(); i++) {
-            data.emptyChunks.add(((LongTag)list.get(i)).getAsLong());
+    private static EmptyChunksData load(CompoundTag tag, ServerLevel level) {
+        EmptyChunksData data = new EmptyChunksData(level);
+        data.fingerprint = tag.getString("fingerprint");
+        if (tag.contains("empty_chunks", Tag.TAG_LONG_ARRAY)) {
+            long[] chunks = tag.getLongArray("empty_chunks");
+            data.emptyChunks.ensureCapacity(chunks.length);
+            for (long chunk : chunks) {
+                data.emptyChunks.add(chunk);
+            }
+        } else {
+            // Older saves wrote one LongTag per chunk
+            ListTag list = tag.getList("empty_chunks", Tag.TAG_LONG);
+            for (int i = 0; i < list.size(); i++) {
+                data.emptyChunks.add(((LongTag)list.get(i)).getAsLong());
+            }
         }
+        data.journal.replay(tag.getLong("journal_generation"), data::applyRecord);
+        data.validate(computeFingerprint(level.getServer()));
         return data;
     }
 
-    @Override
-    public CompoundTag save(CompoundTag tag, HolderLookup.Provider provider) {
-        ListTag list = new ListTag();
-        for (Long chunkPos : emptyChunks) {
-            list.add(LongTag.valueOf(chunkPos));
+    private void applyRecord(byte op, long value) {
+        switch (op) {
+            case StructureJournal.OP_ADD -> emptyChunks.add(value);
+            case StructureJournal.OP_REMOVE -> emptyChunks.remove(value);
+            case StructureJournal.OP_CLEAR -> emptyChunks.clear();
+            default -> {
+            }
         }
-        tag.put("empty_chunks", list);
-        return tag;
+    }
+
+    private void changed(byte op, long value) {
+        if (journal.isEnabled()) {
+            journal.append(op, value, emptyChunks.size());
+        } else {
+            setDirty();
+        }
+    }
+
+    @Override
+    protected Supplier<CompoundTag> snapshot(HolderLookup.Provider provider) {
+        long generation = journal.rotate();
+        long[] chunks = emptyChunks.toLongArray();
+        String savedFingerprint = fingerprint;
+        return () -> {
+            CompoundTag tag = new CompoundTag();
+            tag.putLong("journal_generation", generation);
+            tag.putString("fingerprint", savedFingerprint);
+            // Sorted so neighbouring chunks sit next to each other, which compresses far better
+            Arrays.sort(chunks);
+            tag.putLongArray("empty_chunks", chunks);
+            return tag;
+        };
+    }
+
+    @Override
+    protected void snapshotWritten() {
+        journal.snapshotWritten();
     }
 
     public void markEmpty(ChunkPos pos) {
-        emptyChunks.add(pos.toLong());
-        setDirty();
+        if (emptyChunks.add(pos.toLong())) {
+            changed(StructureJournal.OP_ADD, pos.toLong());
+        }
     }
 
     public boolean isEmpty(ChunkPos pos) {
-        return emptyChunks.contains(pos.toLong());
+        return isEmpty(pos.x, pos.z);
+    }
+
+    /**
+     * Whether the chunk is marked empty; a mark on a loaded chunk that has since gained a start
+     * or reference, e.g. from a structure placed by command, is dropped instead
+     */
+    public boolean isEmpty(int chunkX, int chunkZ) {
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        if (!emptyChunks.contains(key)) {
+            return false;
+        }
+        ChunkAccess chunk = level.getChunkSource().getChunkNow(chunkX, chunkZ);
+        if (chunk != null && (!chunk.getAllReferences().isEmpty() || !chunk.getAllStarts().isEmpty())) {
+            emptyChunks.remove(key);
+            changed(StructureJournal.OP_REMOVE, key);
+            return false;
+        }
+        return true;
+    }
+
+    public void invalidate(ChunkPos pos) {
+        if (emptyChunks.remove(pos.toLong())) {
+            changed(StructureJournal.OP_REMOVE, pos.toLong());
+        }
     }
 
     public void clear() {
         emptyChunks.clear();
-        setDirty();
+        changed(StructureJournal.OP_CLEAR, 0L);
+    }
+
+    public int size() {
+        return emptyChunks.size();
+    }
+
+    /**
+     * Drops every entry if the set was built against a different structure registry or datapack list
+     */
+    public void validate(String currentFingerprint) {
+        if (!fingerprint.equals(currentFingerprint)) {
+            emptyChunks.clear();
+            fingerprint = currentFingerprint;
+            // The fingerprint lives in the snapshot, so write one now
+            setDirty();
+        }
+    }
+
+    /**
+     * Hash of the registered structure ids and the enabled datapacks; anything that can add or
+     * move structures in newly generated chunks changes it
+     */
+    public static String computeFingerprint(MinecraftServer server) {
+        return Long.toHexString(fingerprintHash(server));
+    }
+
+    /**
+     * {@link #computeFingerprint} as a number, for journals that tag their files with it
+     */
+    public static long fingerprintHash(MinecraftServer server) {
+        List<String> parts = new ArrayList<>();
+        for (ResourceLocation id : server.registryAccess().registryOrThrow(Registries.STRUCTURE).keySet()) {
+            parts.add(id.toString());
+        }
+        parts.sort(null);
+        parts.add("|");
+        parts.addAll(server.getPackRepository().getSelectedIds());
+
+        long hash = 1125899906842597L;
+        for (String part : parts) {
+            for (int i = 0; i < part.length(); i++) {
+                hash = 31 * hash + part.charAt(i);
+            }
+            hash = 31 * hash + ';';
+        }
+        return hash;
     }
 
     @SubscribeEvent
-    public static void onServerStarted(ServerStartedEvent event) {
-        event.getServer().getAllLevels().forEach(level ->
-                EmptyChunksData.get(level).clear()
-        );
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        // References are written during generation; drop any stale entry for a chunk that now has some
+        if (event.getLevel() instanceof ServerLevel level && !event.getChunk().getAllReferences().isEmpty()) {
+            LevelStructureContext.get(level).emptyChunks().invalidate(event.getChunk().getPos());
+        }
     }
-}
\ No newline at end of file
+}
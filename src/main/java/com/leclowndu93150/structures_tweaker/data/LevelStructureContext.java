@@ -0,0 +1,75 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The saved data handles of one level, resolved once when the level is first used instead of
+ * through {@link net.minecraft.world.level.storage.DimensionDataStorage} on every event. Dropped
+ * when the level unloads or the server stops, so a reloaded world gets fresh handles.
+ */
+public final class LevelStructureContext {
+    private static final Map<ResourceKey<Level>, LevelStructureContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private final ServerLevel level;
+    private final DefeatedStructuresData defeated;
+    private final StructureBlocksData blocks;
+    private final EmptyChunksData emptyChunks;
+
+    private LevelStructureContext(ServerLevel level) {
+        this.level = level;
+        this.defeated = DefeatedStructuresData.get(level);
+        this.blocks = StructureBlocksData.get(level);
+        this.emptyChunks = EmptyChunksData.get(level);
+    }
+
+    public static LevelStructureContext get(ServerLevel level) {
+        LevelStructureContext context = CONTEXTS.get(level.dimension());
+        if (context == null || context.level != level) {
+            context = new LevelStructureContext(level);
+            CONTEXTS.put(level.dimension(), context);
+        }
+        return context;
+    }
+
+    /**
+     * The level's context if it was already created, for threads that must not load saved data
+     */
+    @Nullable
+    public static LevelStructureContext getIfPresent(ServerLevel level) {
+        LevelStructureContext context = CONTEXTS.get(level.dimension());
+        return context != null && context.level == level ? context : null;
+    }
+
+    public DefeatedStructuresData defeated() {
+        return defeated;
+    }
+
+    public StructureBlocksData blocks() {
+        return blocks;
+    }
+
+    public EmptyChunksData emptyChunks() {
+        return emptyChunks;
+    }
+
+    @SubscribeEvent
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            CONTEXTS.remove(level.dimension());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        CONTEXTS.clear();
+    }
+}
@@ -0,0 +1,70 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.HolderLookup;
+import net.minecraft.core.Registry;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.neoforged.neoforge.attachment.AttachmentType;
+import net.neoforged.neoforge.attachment.IAttachmentHolder;
+import net.neoforged.neoforge.attachment.IAttachmentSerializer;
+import net.neoforged.neoforge.registries.DeferredRegister;
+import net.neoforged.neoforge.registries.NeoForgeRegistries;
+import net.neoforged.neoforge.server.ServerLifecycleHooks;
+
+import javax.annotation.Nullable;
+import java.util.function.Supplier;
+
+public class ModAttachments {
+    public static final DeferredRegister<AttachmentType<?>> ATTACHMENT_TYPES =
+            DeferredRegister.create(NeoForgeRegistries.Keys.ATTACHMENT_TYPES, StructuresTweaker.MODID);
+
+    /**
+     * Player-placed blocks of a chunk; saved and loaded with the chunk itself
+     */
+    public static final Supplier<AttachmentType<ChunkPlacedBlocks>> PLACED_BLOCKS = ATTACHMENT_TYPES.register(
+            "placed_blocks",
+            () -> AttachmentType.builder(ChunkPlacedBlocks::new)
+                    .serialize(new PlacedBlocksSerializer())
+                    .build()
+    );
+
+    private static class PlacedBlocksSerializer implements IAttachmentSerializer<CompoundTag, ChunkPlacedBlocks> {
+        @Override
+        public ChunkPlacedBlocks read(IAttachmentHolder holder, CompoundTag tag, HolderLookup.Provider provider) {
+            Registry<Structure> registry = structureRegistry(provider);
+            return ChunkPlacedBlocks.load(
+                    tag.getList("sections", Tag.TAG_COMPOUND),
+                    StructureInstanceId.remapper(StructureInstanceId.readPalette(tag.getCompound("palette"), registry))
+            );
+        }
+
+        @Nullable
+        @Override
+        public CompoundTag write(ChunkPlacedBlocks attachment, HolderLookup.Provider provider) {
+            if (attachment.isEmpty()) {
+                return null;
+            }
+            LongOpenHashSet owners = new LongOpenHashSet();
+            attachment.collectOwners(owners);
+
+            CompoundTag tag = new CompoundTag();
+            tag.put("sections", attachment.save());
+            tag.put("palette", StructureInstanceId.writePalette(owners, structureRegistry(provider)));
+            return tag;
+        }
+
+        private static Registry<Structure> structureRegistry(HolderLookup.Provider provider) {
+            // Chunk I/O passes the level's registry access; fall back to the server's otherwise
+            RegistryAccess access = provider instanceof RegistryAccess registryAccess
+                    ? registryAccess
+                    : ServerLifecycleHooks.getCurrentServer().registryAccess();
+            return access.registryOrThrow(Registries.STRUCTURE);
+        }
+    }
+}
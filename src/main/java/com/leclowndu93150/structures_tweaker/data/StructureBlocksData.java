@@ -1,105 +1,191 @@
 package com.leclowndu93150.structures_tweaker.data;
 
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.HolderLookup;
+import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
-import net.minecraft.resources.ResourceLocation;
+import net.minecraft.nbt.Tag;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.levelgen.structure.Structure;
 import net.minecraft.world.level.saveddata.SavedData;
 import net.minecraft.world.level.storage.DimensionDataStorage;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.level.ChunkEvent;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import javax.annotation.Nullable;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
 
-public class StructureBlocksData extends SavedData {
-    private final Map<ResourceLocation, Set<BlockPos>> playerPlacedBlocks = new HashMap<>();
-    private final Map<BlockPos, ResourceLocation> posToStructure = new HashMap<>();
+/**
+ * Access point for blocks placed by players inside structures. The blocks themselves live on each
+ * chunk as the {@link ModAttachments#PLACED_BLOCKS} attachment, so they are loaded, unloaded and
+ * saved with the chunk. This saved data only holds blocks from the old per-dimension file that
+ * have not been moved onto their chunk yet; each chunk is migrated the first time it loads.
+ */
+public class StructureBlocksData extends AsyncSavedData {
+    private static final String NAME = "structures_tweaker_player_blocks";
+
+    private final ServerLevel level;
+    private final Long2ObjectMap<ChunkPlacedBlocks> legacyChunks = new Long2ObjectOpenHashMap<>();
+    // Records the chunks migrated since the last snapshot
+    private final StructureJournal journal;
+
+    private StructureBlocksData(ServerLevel level) {
+        this.level = level;
+        this.journal = new StructureJournal(level, NAME, StructuresTweaker.getConfigManager().getPerformanceConfig().journaledPersistence, this::setDirty);
+    }
 
     public static StructureBlocksData get(ServerLevel level) {
         DimensionDataStorage storage = level.getDataStorage();
         return storage.computeIfAbsent(
                 new SavedData.Factory<>(
-                        StructureBlocksData::new,
-                        (tag, provider) -> load(tag),
+                        () -> new StructureBlocksData(level),
+                        (tag, provider) -> load(tag, level),
                         null
                 ),
-                "structures_tweaker_player_blocks"
+                NAME
         );
     }
 
-    private static StructureBlocksData load(CompoundTag tag) {
-        StructureBlocksData data = new StructureBlocksData();
-        CompoundTag structuresTag = tag.getCompound("player_placed_blocks");
+    private static StructureBlocksData load(CompoundTag tag, ServerLevel level) {
+        StructureBlocksData data = new StructureBlocksData(level);
+        Registry<Structure> registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+        // Blocks of structures removed from the registry stay protected as unowned blocks
+        LongUnaryOperator remap = StructureInstanceId.remapper(StructureInstanceId.readPalette(tag.getCompound("palette"), registry));
+
+        ListTag chunkList = tag.getList("chunks", Tag.TAG_COMPOUND);
+        for (int i = 0; i < chunkList.size(); i++) {
+            CompoundTag chunkTag = chunkList.getCompound(i);
+            ChunkPlacedBlocks chunk = ChunkPlacedBlocks.load(chunkTag.getList("sections", Tag.TAG_COMPOUND), remap);
+            if (!chunk.isEmpty()) {
+                data.legacyChunks.put(chunkTag.getLong("pos"), chunk);
+            }
+        }
 
+        // Oldest format grouped positions by structure type only; the owning instance is unknown
+        CompoundTag structuresTag = tag.getCompound("player_placed_blocks");
         for (String key : structuresTag.getAllKeys()) {
-            ResourceLocation structureId = ResourceLocation.tryParse(key);
-            if (structureId != null) {
-                ListTag positions = structuresTag.getList(key, 10);
-                Set<BlockPos> blocks = new HashSet<>();
-
-                for (int i = 0; i < positions.size(); i++) {
-                    CompoundTag posTag = positions.getCompound(i);
-                    BlockPos pos = BlockPos.of(posTag.getLong("pos"));
-                    blocks.add(pos);
-                    data.posToStructure.put(pos, structureId);
-                }
-
-                data.playerPlacedBlocks.put(structureId, blocks);
+            ListTag positions = structuresTag.getList(key, Tag.TAG_COMPOUND);
+            for (int i = 0; i < positions.size(); i++) {
+                data.putLegacy(StructureInstanceId.NONE, positions.getCompound(i).getLong("pos"));
             }
         }
+
+        data.journal.replay(tag.getLong("journal_generation"), (op, chunkKey) -> {
+            if (op == StructureJournal.OP_REMOVE) {
+                data.legacyChunks.remove(chunkKey);
+            }
+        });
         return data;
     }
 
     @Override
-    public CompoundTag save(CompoundTag tag, HolderLookup.Provider provider) {
-        CompoundTag structuresTag = new CompoundTag();
-
-        playerPlacedBlocks.forEach((id, positions) -> {
-            ListTag positionsTag = new ListTag();
-            positions.forEach(pos -> {
-                CompoundTag posTag = new CompoundTag();
-                posTag.putLong("pos", pos.asLong());
-                positionsTag.add(posTag);
-            });
-            structuresTag.put(id.toString(), positionsTag);
-        });
+    protected Supplier<CompoundTag> snapshot(HolderLookup.Provider provider) {
+        long generation = journal.rotate();
+        // Legacy chunks are never modified after load, only removed, so sharing them is safe
+        Long2ObjectMap<ChunkPlacedBlocks> chunks = new Long2ObjectOpenHashMap<>(legacyChunks);
+        LongOpenHashSet owners = new LongOpenHashSet();
+        for (ChunkPlacedBlocks chunk : chunks.values()) {
+            chunk.collectOwners(owners);
+        }
+        CompoundTag palette = StructureInstanceId.writePalette(owners, level.registryAccess().registryOrThrow(Registries.STRUCTURE));
+
+        return () -> {
+            CompoundTag tag = new CompoundTag();
+            tag.putLong("journal_generation", generation);
+            ListTag chunkList = new ListTag();
+            for (Long2ObjectMap.Entry<ChunkPlacedBlocks> entry : chunks.long2ObjectEntrySet()) {
+                CompoundTag chunkTag = new CompoundTag();
+                chunkTag.putLong("pos", entry.getLongKey());
+                chunkTag.put("sections", entry.getValue().save());
+                chunkList.add(chunkTag);
+            }
+            tag.put("chunks", chunkList);
+            tag.put("palette", palette);
+            return tag;
+        };
+    }
 
-        tag.put("player_placed_blocks", structuresTag);
-        return tag;
+    @Override
+    protected void snapshotWritten() {
+        journal.snapshotWritten();
     }
 
-    public void addPlayerBlock(ResourceLocation structureId, BlockPos pos) {
-        playerPlacedBlocks.computeIfAbsent(structureId, k -> new HashSet<>()).add(pos);
-        posToStructure.put(pos, structureId);
-        setDirty();
+    public void addPlayerBlock(long instanceId, BlockPos pos) {
+        LevelChunk chunk = level.getChunkAt(pos);
+        migrate(chunk);
+        if (chunk.getData(ModAttachments.PLACED_BLOCKS).put(pos.getX(), pos.getY(), pos.getZ(), instanceId)) {
+            chunk.setUnsaved(true);
+        }
     }
 
     public void removePlayerBlock(BlockPos pos) {
-        ResourceLocation structureId = posToStructure.remove(pos);
-        if (structureId != null) {
-            Set<BlockPos> blocks = playerPlacedBlocks.get(structureId);
-            if (blocks != null) {
-                blocks.remove(pos);
-                if (blocks.isEmpty()) {
-                    playerPlacedBlocks.remove(structureId);
-                }
-                setDirty();
+        LevelChunk chunk = level.getChunkAt(pos);
+        ChunkPlacedBlocks blocks = getBlocks(chunk);
+        if (blocks != null && blocks.remove(pos.getX(), pos.getY(), pos.getZ())) {
+            if (blocks.isEmpty()) {
+                chunk.removeData(ModAttachments.PLACED_BLOCKS);
             }
+            chunk.setUnsaved(true);
         }
     }
 
     public boolean isPlayerPlaced(BlockPos pos) {
-        return posToStructure.containsKey(pos);
+        ChunkPlacedBlocks blocks = getBlocks(level.getChunkAt(pos));
+        return blocks != null && blocks.contains(pos.getX(), pos.getY(), pos.getZ());
     }
 
-    public void clearStructure(ResourceLocation structureId) {
-        Set<BlockPos> blocks = playerPlacedBlocks.remove(structureId);
-        if (blocks != null) {
-            blocks.forEach(posToStructure::remove);
+    @Nullable
+    private ChunkPlacedBlocks getBlocks(LevelChunk chunk) {
+        migrate(chunk);
+        return chunk.hasData(ModAttachments.PLACED_BLOCKS) ? chunk.getData(ModAttachments.PLACED_BLOCKS) : null;
+    }
+
+    /**
+     * Moves the chunk's blocks from the old per-dimension file onto the chunk
+     */
+    private void migrate(LevelChunk chunk) {
+        if (legacyChunks.isEmpty()) {
+            return;
+        }
+        ChunkPlacedBlocks legacy = legacyChunks.remove(chunk.getPos().toLong());
+        if (legacy == null) {
+            return;
+        }
+        // Copied rather than attached, since a pending snapshot may still be encoding the legacy object
+        chunk.getData(ModAttachments.PLACED_BLOCKS).mergeFrom(legacy);
+        chunk.setUnsaved(true);
+        if (journal.isEnabled()) {
+            journal.append(StructureJournal.OP_REMOVE, chunk.getPos().toLong(), legacyChunks.size());
+        } else {
             setDirty();
         }
     }
-}
\ No newline at end of file
+
+    private void putLegacy(long owner, long pos) {
+        int x = BlockPos.getX(pos);
+        int z = BlockPos.getZ(pos);
+        long chunkKey = ChunkPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z));
+        legacyChunks.computeIfAbsent(chunkKey, k -> new ChunkPlacedBlocks()).put(x, BlockPos.getY(pos), z, owner);
+    }
+
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getLevel() instanceof ServerLevel level && event.getChunk() instanceof LevelChunk chunk) {
+            StructureBlocksData data = LevelStructureContext.get(level).blocks();
+            if (!data.legacyChunks.isEmpty()) {
+                data.migrate(chunk);
+            }
+        }
+    }
+}
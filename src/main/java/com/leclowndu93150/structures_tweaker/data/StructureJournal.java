@@ -0,0 +1,266 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.storage.LevelResource;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+import net.neoforged.neoforge.event.server.ServerStoppingEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only change log for a structure dataset, so an autosave only writes what changed instead
+ * of re-serializing the whole dataset. Each record is an op byte and a long. Records are buffered
+ * in memory and appended to {@code <name>.<generation>.journal} next to the dataset's saved data
+ * whenever the level saves.
+ * <p>
+ * When a full snapshot is saved it records the next generation and the journal rotates to it, so
+ * on load only journals of that generation or later are replayed on top of the snapshot. Older
+ * journals are only deleted once a snapshot covering them is confirmed on disk, and replay is
+ * idempotent, so a crash or failed write between rotation and the snapshot loses nothing. Once
+ * the journal grows past the size of the dataset itself, the owner is asked for a new snapshot.
+ * <p>
+ * Journals of datasets whose records depend on registry indices can be bound to a fingerprint
+ * of the structure registry: each file then starts with it, and files written under a different
+ * registry are discarded on replay instead of being applied to the wrong structures.
+ */
+public class StructureJournal {
+    public static final byte OP_ADD = 1;
+    public static final byte OP_REMOVE = 2;
+    public static final byte OP_CLEAR = 3;
+    private static final byte OP_FINGERPRINT = 4;
+
+    private static final int RECORD_BYTES = 9;
+    private static final int MIN_COMPACTION_RECORDS = 4096;
+    private static final Logger LOGGER = LogManager.getLogger(StructuresTweaker.MODID);
+    private static final Set<StructureJournal> OPEN = ConcurrentHashMap.newKeySet();
+
+    public interface RecordConsumer {
+        void accept(byte op, long value);
+    }
+
+    private final ServerLevel level;
+    private final Path directory;
+    private final String name;
+    private final boolean enabled;
+    private final Runnable compactionCallback;
+    private final boolean fingerprinted;
+    private final long fingerprint;
+    private ByteBuffer pending = ByteBuffer.allocate(RECORD_BYTES * 256);
+    private long generation;
+    // Generation of the newest snapshot known to be on disk, and of the one being written
+    private long durableGeneration;
+    private long writingGeneration;
+    private long recordsSinceSnapshot;
+
+    /**
+     * @param enabled            when false nothing is appended and the owner saves full snapshots as before;
+     *                           existing journals are still replayed and cleaned up
+     * @param compactionCallback marks the owner dirty so its next save writes a snapshot
+     */
+    public StructureJournal(ServerLevel level, String name, boolean enabled, Runnable compactionCallback) {
+        this(level, name, enabled, compactionCallback, false, 0L);
+    }
+
+    /**
+     * A journal whose files are only replayed under the same registry fingerprint
+     */
+    public StructureJournal(ServerLevel level, String name, boolean enabled, Runnable compactionCallback, long fingerprint) {
+        this(level, name, enabled, compactionCallback, true, fingerprint);
+    }
+
+    private StructureJournal(ServerLevel level, String name, boolean enabled, Runnable compactionCallback, boolean fingerprinted, long fingerprint) {
+        this.level = level;
+        this.fingerprinted = fingerprinted;
+        this.fingerprint = fingerprint;
+        this.directory = DimensionType.getStorageFolder(level.dimension(), level.getServer().getWorldPath(LevelResource.ROOT)).resolve("data");
+        this.name = name;
+        this.enabled = enabled;
+        this.compactionCallback = compactionCallback;
+        OPEN.add(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replays every journal of the snapshot's generation or later and deletes older ones
+     */
+    public void replay(long snapshotGeneration, RecordConsumer consumer) {
+        generation = snapshotGeneration;
+        durableGeneration = snapshotGeneration;
+        writingGeneration = snapshotGeneration;
+        for (Map.Entry<Long, Path> entry : listJournals().entrySet()) {
+            if (entry.getKey() < snapshotGeneration) {
+                deleteQuietly(entry.getValue());
+                continue;
+            }
+            generation = Math.max(generation, entry.getKey());
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.getValue())))) {
+                if (fingerprinted && (in.readByte() != OP_FINGERPRINT || in.readLong() != fingerprint)) {
+                    LOGGER.warn("Discarding journal {} written for a different structure registry", entry.getValue());
+                    in.close();
+                    deleteQuietly(entry.getValue());
+                    continue;
+                }
+                while (true) {
+                    byte op = in.readByte();
+                    long value = in.readLong();
+                    if (op == OP_FINGERPRINT) continue;
+                    consumer.accept(op, value);
+                    recordsSinceSnapshot++;
+                }
+            } catch (EOFException ignored) {
+                // End of the journal, or a record cut short by a crash
+            } catch (IOException e) {
+                LOGGER.error("Failed to replay journal {}: {}", entry.getValue(), e.getMessage());
+            }
+        }
+        if (recordsSinceSnapshot > 0) {
+            // Fold the replayed records into the next snapshot
+            compactionCallback.run();
+        }
+    }
+
+    /**
+     * Buffers a record; liveSize is the current size of the dataset, used to decide when to compact
+     */
+    public synchronized void append(byte op, long value, int liveSize) {
+        if (pending.remaining() < RECORD_BYTES) {
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(op).putLong(value);
+        if (++recordsSinceSnapshot > Math.max(MIN_COMPACTION_RECORDS, liveSize)) {
+            compactionCallback.run();
+        }
+    }
+
+    /**
+     * Appends buffered records to the current generation's file
+     */
+    public synchronized void flush() {
+        if (pending.position() == 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path path = journalPath(generation);
+            boolean newFile = !Files.exists(path) || Files.size(path) == 0;
+            try (OutputStream out = Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+                if (fingerprinted && newFile) {
+                    out.write(ByteBuffer.allocate(RECORD_BYTES).put(OP_FINGERPRINT).putLong(fingerprint).array());
+                }
+                out.write(pending.array(), 0, pending.position());
+            }
+            pending.clear();
+        } catch (IOException e) {
+            LOGGER.error("Failed to append to journal {}: {}", journalPath(generation), e.getMessage());
+        }
+    }
+
+    /**
+     * Called while a snapshot is taken: buffered records are written to the current generation,
+     * which the snapshot covers, and the journal moves to a new one. Returns the generation the
+     * snapshot must record. Records that could not be written stay buffered for the new generation.
+     */
+    public synchronized long rotate() {
+        flush();
+        recordsSinceSnapshot = 0;
+        generation++;
+        writingGeneration = generation;
+        // Journals stay until a snapshot that covers them is on disk, in case this one fails to write
+        for (Map.Entry<Long, Path> entry : listJournals().entrySet()) {
+            if (entry.getKey() < durableGeneration) {
+                deleteQuietly(entry.getValue());
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Called once the snapshot taken at the last {@link #rotate()} is on disk
+     */
+    public synchronized void snapshotWritten() {
+        durableGeneration = writingGeneration;
+    }
+
+    public void close() {
+        flush();
+        OPEN.remove(this);
+    }
+
+    private Path journalPath(long gen) {
+        return directory.resolve(name + "." + gen + ".journal");
+    }
+
+    private TreeMap<Long, Path> listJournals() {
+        TreeMap<Long, Path> journals = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return journals;
+        }
+        String prefix = name + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*.journal")) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String gen = fileName.substring(prefix.length(), fileName.length() - ".journal".length());
+                try {
+                    journals.put(Long.parseLong(gen), path);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to list journals for {}: {}", name, e.getMessage());
+        }
+        return journals;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete old journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLevelSave(LevelEvent.Save event) {
+        for (StructureJournal journal : OPEN) {
+            if (journal.level == event.getLevel()) {
+                journal.flush();
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        // Compact everything into snapshots during the final save so journals never outlive a clean shutdown
+        for (StructureJournal journal : OPEN) {
+            if (journal.recordsSinceSnapshot > 0) {
+                journal.compactionCallback.run();
+            }
+            journal.close();
+        }
+    }
+}
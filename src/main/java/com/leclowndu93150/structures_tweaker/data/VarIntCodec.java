@@ -0,0 +1,96 @@
+package com.leclowndu93150.structures_tweaker.data;
+
+import java.util.Arrays;
+
+/**
+ * Packs long sets into byte arrays for saved data. Values are sorted, each stored
+ * as the zigzag-encoded difference to the previous one and written as a varint, so ids that
+ * cluster together take one or two bytes instead of eight.
+ */
+public final class VarIntCodec {
+    private VarIntCodec() {
+    }
+
+    /**
+     * Encodes the values as a sorted delta sequence; the input array is sorted in place
+     */
+    public static byte[] encodeSortedLongs(long[] values) {
+        Arrays.sort(values);
+        Writer writer = new Writer(values.length * 2 + 5);
+        writer.writeVarLong(values.length);
+        long previous = 0L;
+        for (long value : values) {
+            writer.writeVarLong(zigzag(value - previous));
+            previous = value;
+        }
+        return writer.toByteArray();
+    }
+
+    public static long[] decodeSortedLongs(byte[] bytes) {
+        Reader reader = new Reader(bytes);
+        int length = (int) reader.readVarLong();
+        long[] values = new long[length];
+        long previous = 0L;
+        for (int i = 0; i < length; i++) {
+            previous += unzigzag(reader.readVarLong());
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int capacity) {
+            this.buffer = new byte[Math.max(16, capacity)];
+        }
+
+        void writeVarLong(long value) {
+            if (buffer.length - position < 10) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        long readVarLong() {
+            long value = 0L;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= buffer.length || shift >= 64) {
+                    throw new IllegalArgumentException("Malformed varint data");
+                }
+                b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.Nullable;
+
+/**
+ * Direct-mapped memo of one player's recent block decisions. Haste mining, auto-clickers and
+ * right clicks firing once per hand produce bursts of identical queries at the same block, and
+ * this answers the repeats with a single slot probe instead of resolving the structure again.
+ * Entries are keyed by action, level, position, block, held item and creative mode, tagged with
+ * the policy epoch they were decided under, and only live for {@link #TTL_TICKS} ticks. Server
+ * thread only.
+ */
+final class DecisionMemo {
+    static final int TTL_TICKS = 4;
+    private static final int SLOTS = 16;
+
+    private final StructureAction[] actions = new StructureAction[SLOTS];
+    private final Level[] levels = new Level[SLOTS];
+    private final long[] positions = new long[SLOTS];
+    private final Object[] blocks = new Object[SLOTS];
+    private final Object[] items = new Object[SLOTS];
+    private final boolean[] creative = new boolean[SLOTS];
+    private final int[] epochs = new int[SLOTS];
+    private final int[] expiries = new int[SLOTS];
+    private final Verdict[] verdicts = new Verdict[SLOTS];
+    private final StructureInstance[] instances = new StructureInstance[SLOTS];
+    private final DynamicStructureFlags[] flags = new DynamicStructureFlags[SLOTS];
+    private final String[] messages = new String[SLOTS];
+
+    private static int slot(StructureAction action, long pos) {
+        return (int) HashCommon.mix(pos * 31 + action.ordinal()) & (SLOTS - 1);
+    }
+
+    /**
+     * Returns the remembered verdict and restores its results into the context, or null on a miss
+     */
+    @Nullable
+    Verdict lookup(QueryContext context, StructureAction action, Level level, long pos, @Nullable Object block,
+                   @Nullable Object item, boolean isCreative, int epoch, int tick) {
+        int slot = slot(action, pos);
+        if (actions[slot] != action || positions[slot] != pos || levels[slot] != level || blocks[slot] != block
+                || items[slot] != item || creative[slot] != isCreative || epochs[slot] != epoch || tick - expiries[slot] > 0) {
+            return null;
+        }
+        context.instance = instances[slot];
+        context.flags = flags[slot];
+        context.denyMessage = messages[slot];
+        return verdicts[slot];
+    }
+
+    void store(QueryContext context, StructureAction action, Level level, long pos, @Nullable Object block,
+               @Nullable Object item, boolean isCreative, int epoch, int tick, Verdict verdict) {
+        int slot = slot(action, pos);
+        actions[slot] = action;
+        levels[slot] = level;
+        positions[slot] = pos;
+        blocks[slot] = block;
+        items[slot] = item;
+        creative[slot] = isCreative;
+        epochs[slot] = epoch;
+        expiries[slot] = tick + TTL_TICKS;
+        verdicts[slot] = verdict;
+        instances[slot] = context.instance;
+        flags[slot] = context.flags;
+        messages[slot] = context.denyMessage;
+    }
+}
@@ -3,94 +3,162 @@ package com.leclowndu93150.structures_tweaker.events;
 import com.leclowndu93150.structures_tweaker.config.core.StructureConfig;
 import com.leclowndu93150.structures_tweaker.config.properties.ConfigProperty;
 import com.leclowndu93150.structures_tweaker.config.properties.ConfigRegistry;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.level.block.Block;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Dynamic structure flags that automatically work with any registered properties
+ * Immutable structure policy compiled from a {@link StructureConfig} when configs are (re)loaded.
+ * Boolean properties are packed into a single long so every flag check on the event hot path
+ * is one bit test; all other values are converted once and stored by property index.
+ * Block and item lists are compiled into {@link RegistryEntrySet}s, so policies must be
+ * recompiled whenever tags are rebound. Each policy also carries a dispatch table holding the
+ * verdict of every {@link StructureAction} before its subject (block, item, mob) is considered.
  */
-public class DynamicStructureFlags {
-    private final Map<String, Object> flags;
-    
+public final class DynamicStructureFlags {
+    private static final long CAN_BREAK_BLOCKS = mask(ConfigRegistry.CAN_BREAK_BLOCKS);
+    private static final long CAN_INTERACT = mask(ConfigRegistry.CAN_INTERACT);
+    private static final long CAN_PLACE_BLOCKS = mask(ConfigRegistry.CAN_PLACE_BLOCKS);
+    private static final long ALLOW_PLAYER_PVP = mask(ConfigRegistry.ALLOW_PLAYER_PVP);
+    private static final long ALLOW_CREATURE_SPAWNING = mask(ConfigRegistry.ALLOW_CREATURE_SPAWNING);
+    private static final long ALLOW_FIRE_SPREAD = mask(ConfigRegistry.ALLOW_FIRE_SPREAD);
+    private static final long ALLOW_EXPLOSIONS = mask(ConfigRegistry.ALLOW_EXPLOSIONS);
+    private static final long ALLOW_ITEM_PICKUP = mask(ConfigRegistry.ALLOW_ITEM_PICKUP);
+    private static final long ONLY_PROTECT_ORIGINAL_BLOCKS = mask(ConfigRegistry.ONLY_PROTECT_ORIGINAL_BLOCKS);
+    private static final long ALLOW_ELYTRA_FLIGHT = mask(ConfigRegistry.ALLOW_ELYTRA_FLIGHT);
+    private static final long ALLOW_ENDER_PEARLS = mask(ConfigRegistry.ALLOW_ENDER_PEARLS);
+    private static final long ALLOW_RIPTIDE = mask(ConfigRegistry.ALLOW_RIPTIDE);
+    private static final long ALLOW_CREATIVE_FLIGHT = mask(ConfigRegistry.ALLOW_CREATIVE_FLIGHT);
+    private static final long ALLOW_ENDER_TELEPORTATION = mask(ConfigRegistry.ALLOW_ENDER_TELEPORTATION);
+    private static final long PREVENT_HOSTILE_SPAWNS = mask(ConfigRegistry.PREVENT_HOSTILE_SPAWNS);
+    private static final long PREVENT_PASSIVE_SPAWNS = mask(ConfigRegistry.PREVENT_PASSIVE_SPAWNS);
+    private static final long CREATIVE_BYPASS = mask(ConfigRegistry.CREATIVE_BYPASS);
+    private static final long PREVENT_MOB_GRIEFING = mask(ConfigRegistry.PREVENT_MOB_GRIEFING);
+    private static final long PRECISE_PIECE_BOUNDS = mask(ConfigRegistry.PRECISE_PIECE_BOUNDS);
+
+    private final long booleanFlags;
+    private final Object[] values;
+    private final RegistryEntrySet<Block> interactionWhitelist;
+    private final RegistryEntrySet<Block> interactionBlacklist;
+    private final RegistryEntrySet<Item> itemUseWhitelist;
+    private final RegistryEntrySet<Item> itemUseBlacklist;
+    private final RegistryEntrySet<Block> blockBreakWhitelist;
+    private final RegistryEntrySet<Block> blockBreakBlacklist;
+    private final RegistryEntrySet<Block> blockPlaceWhitelist;
+    private final RegistryEntrySet<Block> blockPlaceBlacklist;
+    private final Verdict[] verdicts;
+
     public DynamicStructureFlags(StructureConfig config) {
-        this.flags = new HashMap<>();
-        for (ConfigProperty<?> property : ConfigRegistry.getAllProperties().values()) {
-            flags.put(property.getKey(), config.getValue(property));
+        Collection<ConfigProperty<?>> properties = ConfigRegistry.getAllProperties().values();
+        Object[] resolved = new Object[properties.size()];
+        long bits = 0L;
+
+        for (ConfigProperty<?> property : properties) {
+            Object value = config.getValue(property);
+            if (value instanceof List<?> list) {
+                value = List.copyOf(list);
+            }
+            resolved[property.getIndex()] = value;
+            if (property.getFlagBit() >= 0 && Boolean.TRUE.equals(value)) {
+                bits |= 1L << property.getFlagBit();
+            }
         }
-    }
-    
-    @SuppressWarnings("unchecked")
-    public <T> T getValue(ConfigProperty<T> property) {
-        Object value = flags.get(property.getKey());
-        if (value == null) {
-            return property.getDefaultValue();
+
+        this.booleanFlags = bits;
+        this.values = resolved;
+        this.interactionWhitelist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.INTERACTION_WHITELIST));
+        this.interactionBlacklist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.INTERACTION_BLACKLIST));
+        this.itemUseWhitelist = RegistryEntrySet.compile(BuiltInRegistries.ITEM, getValue(ConfigRegistry.ITEM_USE_WHITELIST));
+        this.itemUseBlacklist = RegistryEntrySet.compile(BuiltInRegistries.ITEM, getValue(ConfigRegistry.ITEM_USE_BLACKLIST));
+        this.blockBreakWhitelist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.BLOCK_BREAK_WHITELIST));
+        this.blockBreakBlacklist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.BLOCK_BREAK_BLACKLIST));
+        this.blockPlaceWhitelist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.BLOCK_PLACE_WHITELIST));
+        this.blockPlaceBlacklist = RegistryEntrySet.compile(BuiltInRegistries.BLOCK, getValue(ConfigRegistry.BLOCK_PLACE_BLACKLIST));
+
+        StructureAction[] actions = StructureAction.values();
+        this.verdicts = new Verdict[actions.length];
+        for (StructureAction action : actions) {
+            verdicts[action.ordinal()] = allows(action) ? Verdict.ALLOW : Verdict.DENY;
         }
-        return property.convert(value);
     }
-    
-    // Convenience methods for common checks
-    public boolean canBreakBlocks() { return getValue(ConfigRegistry.CAN_BREAK_BLOCKS); }
-    public boolean canInteract() { return getValue(ConfigRegistry.CAN_INTERACT); }
-    public boolean canPlaceBlocks() { return getValue(ConfigRegistry.CAN_PLACE_BLOCKS); }
-    public boolean allowPlayerPVP() { return getValue(ConfigRegistry.ALLOW_PLAYER_PVP); }
-    public boolean allowCreatureSpawning() { return getValue(ConfigRegistry.ALLOW_CREATURE_SPAWNING); }
-    public boolean allowFireSpread() { return getValue(ConfigRegistry.ALLOW_FIRE_SPREAD); }
-    public boolean allowExplosions() { return getValue(ConfigRegistry.ALLOW_EXPLOSIONS); }
-    public boolean allowItemPickup() { return getValue(ConfigRegistry.ALLOW_ITEM_PICKUP); }
-    public boolean onlyProtectOriginalBlocks() { return getValue(ConfigRegistry.ONLY_PROTECT_ORIGINAL_BLOCKS); }
-    public boolean allowElytraFlight() { return getValue(ConfigRegistry.ALLOW_ELYTRA_FLIGHT); }
-    public boolean allowEnderPearls() { return getValue(ConfigRegistry.ALLOW_ENDER_PEARLS); }
-    public boolean allowRiptide() { return getValue(ConfigRegistry.ALLOW_RIPTIDE); }
-    public boolean allowCreativeFlight() { return getValue(ConfigRegistry.ALLOW_CREATIVE_FLIGHT); }
-    public boolean allowEnderTeleportation() { return getValue(ConfigRegistry.ALLOW_ENDER_TELEPORTATION); }
-    public boolean preventHostileSpawns() { return getValue(ConfigRegistry.PREVENT_HOSTILE_SPAWNS); }
-    public boolean preventPassiveSpawns() { return getValue(ConfigRegistry.PREVENT_PASSIVE_SPAWNS); }
-    public boolean creativeBypass() { return getValue(ConfigRegistry.CREATIVE_BYPASS); }
-    public boolean preventMobGriefing() { return getValue(ConfigRegistry.PREVENT_MOB_GRIEFING); }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getInteractionWhitelist() { 
-        return getValue(ConfigRegistry.INTERACTION_WHITELIST); 
-    }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getInteractionBlacklist() { 
-        return getValue(ConfigRegistry.INTERACTION_BLACKLIST); 
-    }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getItemUseBlacklist() { 
-        return getValue(ConfigRegistry.ITEM_USE_BLACKLIST); 
-    }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getItemUseWhitelist() { 
-        return getValue(ConfigRegistry.ITEM_USE_WHITELIST); 
-    }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getBlockBreakWhitelist() { 
-        return getValue(ConfigRegistry.BLOCK_BREAK_WHITELIST); 
+
+    private boolean allows(StructureAction action) {
+        return switch (action) {
+            case BLOCK_BREAK -> canBreakBlocks();
+            case BLOCK_PLACE, FLUID_PLACE -> canPlaceBlocks();
+            case INTERACT -> canInteract();
+            case EXPLOSION -> allowExplosions();
+            case MOB_SPAWN -> allowCreatureSpawning();
+            case MOB_GRIEFING -> !preventMobGriefing();
+            case ITEM_PICKUP -> allowItemPickup();
+            case ENDER_TELEPORT -> allowEnderTeleportation();
+            case PLAYER_PVP -> allowPlayerPVP();
+            case ITEM_USE -> true;
+            case ELYTRA_FLIGHT -> allowElytraFlight();
+            case CREATIVE_FLIGHT -> allowCreativeFlight();
+        };
     }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getBlockBreakBlacklist() { 
-        return getValue(ConfigRegistry.BLOCK_BREAK_BLACKLIST); 
+
+    /**
+     * The policy's verdict for an action regardless of its subject
+     */
+    public Verdict verdict(StructureAction action) {
+        return verdicts[action.ordinal()];
     }
-    
-    @SuppressWarnings("unchecked")
-    public List<String> getBlockPlaceWhitelist() { 
-        return getValue(ConfigRegistry.BLOCK_PLACE_WHITELIST); 
+
+    private static long mask(ConfigProperty<Boolean> property) {
+        return 1L << property.getFlagBit();
     }
-    
+
     @SuppressWarnings("unchecked")
-    public List<String> getBlockPlaceBlacklist() { 
-        return getValue(ConfigRegistry.BLOCK_PLACE_BLACKLIST); 
+    public <T> T getValue(ConfigProperty<T> property) {
+        int index = property.getIndex();
+        if (index < 0 || index >= values.length || values[index] == null) {
+            return property.getDefaultValue();
+        }
+        return (T) values[index];
     }
-    
+
+    // Convenience methods for common checks
+    public boolean canBreakBlocks() { return (booleanFlags & CAN_BREAK_BLOCKS) != 0; }
+    public boolean canInteract() { return (booleanFlags & CAN_INTERACT) != 0; }
+    public boolean canPlaceBlocks() { return (booleanFlags & CAN_PLACE_BLOCKS) != 0; }
+    public boolean allowPlayerPVP() { return (booleanFlags & ALLOW_PLAYER_PVP) != 0; }
+    public boolean allowCreatureSpawning() { return (booleanFlags & ALLOW_CREATURE_SPAWNING) != 0; }
+    public boolean allowFireSpread() { return (booleanFlags & ALLOW_FIRE_SPREAD) != 0; }
+    public boolean allowExplosions() { return (booleanFlags & ALLOW_EXPLOSIONS) != 0; }
+    public boolean allowItemPickup() { return (booleanFlags & ALLOW_ITEM_PICKUP) != 0; }
+    public boolean onlyProtectOriginalBlocks() { return (booleanFlags & ONLY_PROTECT_ORIGINAL_BLOCKS) != 0; }
+    public boolean allowElytraFlight() { return (booleanFlags & ALLOW_ELYTRA_FLIGHT) != 0; }
+    public boolean allowEnderPearls() { return (booleanFlags & ALLOW_ENDER_PEARLS) != 0; }
+    public boolean allowRiptide() { return (booleanFlags & ALLOW_RIPTIDE) != 0; }
+    public boolean allowCreativeFlight() { return (booleanFlags & ALLOW_CREATIVE_FLIGHT) != 0; }
+    public boolean allowEnderTeleportation() { return (booleanFlags & ALLOW_ENDER_TELEPORTATION) != 0; }
+    public boolean preventHostileSpawns() { return (booleanFlags & PREVENT_HOSTILE_SPAWNS) != 0; }
+    public boolean preventPassiveSpawns() { return (booleanFlags & PREVENT_PASSIVE_SPAWNS) != 0; }
+    public boolean creativeBypass() { return (booleanFlags & CREATIVE_BYPASS) != 0; }
+    public boolean preventMobGriefing() { return (booleanFlags & PREVENT_MOB_GRIEFING) != 0; }
+    public boolean precisePieceBounds() { return (booleanFlags & PRECISE_PIECE_BOUNDS) != 0; }
+
+    public RegistryEntrySet<Block> getInteractionWhitelist() { return interactionWhitelist; }
+    public RegistryEntrySet<Block> getInteractionBlacklist() { return interactionBlacklist; }
+    public RegistryEntrySet<Item> getItemUseBlacklist() { return itemUseBlacklist; }
+    public RegistryEntrySet<Item> getItemUseWhitelist() { return itemUseWhitelist; }
+    public RegistryEntrySet<Block> getBlockBreakWhitelist() { return blockBreakWhitelist; }
+    public RegistryEntrySet<Block> getBlockBreakBlacklist() { return blockBreakBlacklist; }
+    public RegistryEntrySet<Block> getBlockPlaceWhitelist() { return blockPlaceWhitelist; }
+    public RegistryEntrySet<Block> getBlockPlaceBlacklist() { return blockPlaceBlacklist; }
+
     public Map<String, Object> getAllFlags() {
-        return new HashMap<>(flags);
+        Map<String, Object> flags = new LinkedHashMap<>();
+        for (ConfigProperty<?> property : ConfigRegistry.getAllProperties().values()) {
+            flags.put(property.getKey(), getValue(property));
+        }
+        return flags;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,39 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import net.minecraft.server.level.ServerPlayer;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+
+/**
+ * Fired on the NeoForge bus when {@link PlayerStructureTracker} sees a player move into or
+ * out of a structure. Leaving one structure directly into another fires Exit then Enter.
+ */
+public abstract class PlayerStructureEvent extends PlayerEvent {
+    private final StructureInstance structure;
+
+    protected PlayerStructureEvent(ServerPlayer player, StructureInstance structure) {
+        super(player);
+        this.structure = structure;
+    }
+
+    @Override
+    public ServerPlayer getEntity() {
+        return (ServerPlayer) super.getEntity();
+    }
+
+    public StructureInstance getStructure() {
+        return structure;
+    }
+
+    public static class Enter extends PlayerStructureEvent {
+        public Enter(ServerPlayer player, StructureInstance structure) {
+            super(player, structure);
+        }
+    }
+
+    public static class Exit extends PlayerStructureEvent {
+        public Exit(ServerPlayer player, StructureInstance structure) {
+            super(player, structure);
+        }
+    }
+}
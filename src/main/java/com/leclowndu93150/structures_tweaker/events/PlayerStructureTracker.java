@@ -0,0 +1,129 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import com.leclowndu93150.structures_tweaker.StructuresTweaker;
+import com.leclowndu93150.structures_tweaker.cache.StructureCache;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.event.tick.PlayerTickEvent;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the structure instance each player is standing in, so player-centric checks are a field
+ * read instead of a lookup. The structure is only re-resolved when the player crosses into a new
+ * chunk section, unless the section straddles a structure edge or is shared by several
+ * structures, in which case the exact block is compared instead. Sections outside every structure are remembered by
+ * {@link StructureCache#isSectionClear}, so walking through them does not resolve each block.
+ * Transitions are published as {@link PlayerStructureEvent}s.
+ */
+public class PlayerStructureTracker {
+    private final StructureEventHandler handler;
+    private final Map<UUID, TrackedPlayer> players = new ConcurrentHashMap<>();
+
+    public PlayerStructureTracker(StructureEventHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the structure the player is in, refreshing the tracked state if they have moved
+     */
+    @Nullable
+    public StructureInstance getCurrentStructure(ServerPlayer player) {
+        return update(player).current;
+    }
+
+    /**
+     * Returns the player's memo of recent block decisions
+     */
+    DecisionMemo getDecisionMemo(ServerPlayer player) {
+        return players.computeIfAbsent(player.getUUID(), k -> new TrackedPlayer()).memo;
+    }
+
+    @SubscribeEvent
+    public void onPlayerTick(PlayerTickEvent.Post event) {
+        if (event.getEntity() instanceof ServerPlayer player) {
+            update(player);
+        }
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        TrackedPlayer state = players.remove(event.getEntity().getUUID());
+        if (state != null && state.current != null && event.getEntity() instanceof ServerPlayer player) {
+            NeoForge.EVENT_BUS.post(new PlayerStructureEvent.Exit(player, state.current));
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerStopped(ServerStoppedEvent event) {
+        players.clear();
+    }
+
+    /**
+     * Forgets every tracked position so the next check re-resolves, e.g. after configs or caches change
+     */
+    public void invalidateAll() {
+        for (TrackedPlayer state : players.values()) {
+            state.sectionKey = Long.MIN_VALUE;
+        }
+    }
+
+    private TrackedPlayer update(ServerPlayer player) {
+        TrackedPlayer state = players.computeIfAbsent(player.getUUID(), k -> new TrackedPlayer());
+        ServerLevel level = player.serverLevel();
+        BlockPos pos = player.blockPosition();
+        long sectionKey = SectionPos.asLong(pos);
+        long blockKey = pos.asLong();
+
+        if (state.dimension == level.dimension() && state.sectionKey == sectionKey
+                && (!state.boundary || state.blockKey == blockKey)) {
+            return state;
+        }
+
+        StructureInstance previous = state.current;
+        StructureInstance next = level.hasChunkAt(pos) ? handler.resolveInstance(level, pos) : null;
+
+        state.dimension = level.dimension();
+        state.sectionKey = sectionKey;
+        state.blockKey = blockKey;
+        state.current = next;
+        StructureCache cache = StructuresTweaker.getStructureCache();
+        int sectionX = SectionPos.blockToSectionCoord(pos.getX());
+        int sectionY = SectionPos.blockToSectionCoord(pos.getY());
+        int sectionZ = SectionPos.blockToSectionCoord(pos.getZ());
+        state.boundary = next != null
+                ? !cache.isSectionCoveredBy(level, next, sectionX, sectionY, sectionZ)
+                : !cache.isSectionClear(level, sectionX, sectionY, sectionZ);
+
+        if (previous != next && (previous == null || !previous.equals(next))) {
+            if (previous != null) {
+                NeoForge.EVENT_BUS.post(new PlayerStructureEvent.Exit(player, previous));
+            }
+            if (next != null) {
+                NeoForge.EVENT_BUS.post(new PlayerStructureEvent.Enter(player, next));
+            }
+        }
+        return state;
+    }
+
+    private static class TrackedPlayer {
+        @Nullable ResourceKey<Level> dimension;
+        long sectionKey = Long.MIN_VALUE;
+        long blockKey;
+        boolean boundary;
+        @Nullable StructureInstance current;
+        final DecisionMemo memo = new DecisionMemo();
+    }
+}
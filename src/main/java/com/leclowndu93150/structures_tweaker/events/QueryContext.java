@@ -0,0 +1,96 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.entity.MobCategory;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Block;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reusable per-thread carrier for {@link StructureEventHandler#query}: callers put the subject of
+ * the action (block, held item, mob category) in before querying and read the matched structure
+ * and the denial message back afterwards, so a query allocates nothing. Subjects are copied out
+ * when a query starts, which keeps queries fired from inside another query's events safe, and the
+ * results stay valid until the thread's next query.
+ */
+public final class QueryContext {
+    private static final ThreadLocal<QueryContext> CURRENT = ThreadLocal.withInitial(QueryContext::new);
+
+    @Nullable Block block;
+    @Nullable ItemStack item;
+    @Nullable MobCategory mobCategory;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+    @Nullable StructureInstance instance;
+    @Nullable DynamicStructureFlags flags;
+    @Nullable String denyMessage;
+
+    private QueryContext() {
+    }
+
+    /**
+     * Returns this thread's context with the subject cleared
+     */
+    public static QueryContext begin() {
+        QueryContext context = CURRENT.get();
+        context.block = null;
+        context.item = null;
+        context.mobCategory = null;
+        return context;
+    }
+
+    static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    public QueryContext block(Block block) {
+        this.block = block;
+        return this;
+    }
+
+    public QueryContext item(ItemStack item) {
+        this.item = item;
+        return this;
+    }
+
+    public QueryContext mobCategory(MobCategory mobCategory) {
+        this.mobCategory = mobCategory;
+        return this;
+    }
+
+    /**
+     * A scratch position for callers that would otherwise allocate one to query
+     */
+    public BlockPos.MutableBlockPos pos(double x, double y, double z) {
+        return pos.set(x, y, z);
+    }
+
+    /**
+     * The structure the last query matched, or null if it passed
+     */
+    @Nullable
+    public StructureInstance instance() {
+        return instance;
+    }
+
+    @Nullable
+    public DynamicStructureFlags flags() {
+        return flags;
+    }
+
+    /**
+     * Translation key to show the player when the last query was denied, if any
+     */
+    @Nullable
+    public String denyMessage() {
+        return denyMessage;
+    }
+
+    void clearResult() {
+        instance = null;
+        flags = null;
+        denyMessage = null;
+    }
+}
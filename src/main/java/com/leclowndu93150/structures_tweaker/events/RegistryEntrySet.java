@@ -0,0 +1,73 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.core.Holder;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+
+import java.util.List;
+
+/**
+ * Block/item whitelist or blacklist compiled from config strings into an identity set.
+ * Plain entries ("minecraft:chest") resolve to the registered object and tag entries
+ * ("#minecraft:logs") expand to every member of the tag at compile time, so membership
+ * is a single reference-hash probe regardless of how long the configured list is.
+ * Unknown ids and unbound tags are ignored.
+ */
+public final class RegistryEntrySet<T> {
+    private static final RegistryEntrySet<?> EMPTY = new RegistryEntrySet<>(new ReferenceOpenHashSet<>());
+
+    private final ReferenceOpenHashSet<T> entries;
+
+    private RegistryEntrySet(ReferenceOpenHashSet<T> entries) {
+        this.entries = entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RegistryEntrySet<T> empty() {
+        return (RegistryEntrySet<T>) EMPTY;
+    }
+
+    public static <T> RegistryEntrySet<T> compile(Registry<T> registry, List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return empty();
+        }
+
+        ReferenceOpenHashSet<T> entries = new ReferenceOpenHashSet<>();
+        for (String raw : ids) {
+            String entry = raw.trim();
+            if (entry.startsWith("#")) {
+                ResourceLocation tagId = ResourceLocation.tryParse(entry.substring(1));
+                if (tagId == null) continue;
+                registry.getTag(TagKey.create(registry.key(), tagId)).ifPresent(tag -> {
+                    for (Holder<T> holder : tag) {
+                        entries.add(holder.value());
+                    }
+                });
+            } else {
+                ResourceLocation id = ResourceLocation.tryParse(entry);
+                if (id == null) continue;
+                registry.getOptional(id).ifPresent(entries::add);
+            }
+        }
+
+        if (entries.isEmpty()) {
+            return empty();
+        }
+        entries.trim();
+        return new RegistryEntrySet<>(entries);
+    }
+
+    public boolean contains(T value) {
+        return !entries.isEmpty() && entries.contains(value);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,46 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+import javax.annotation.Nullable;
+
+/**
+ * Something a player, mob or the world tries to do at a position, checked against the rules of
+ * the structure there through {@link StructureEventHandler#query}. Player-centric actions are
+ * answered from the structure {@link PlayerStructureTracker} has the player in rather than from
+ * the queried position.
+ */
+public enum StructureAction {
+    BLOCK_BREAK(false, null),
+    BLOCK_PLACE(false, null),
+    FLUID_PLACE(false, null),
+    INTERACT(false, null),
+    EXPLOSION(false, null),
+    MOB_SPAWN(false, null),
+    MOB_GRIEFING(false, null),
+    ITEM_PICKUP(false, null),
+    ENDER_TELEPORT(false, "message.structures_tweaker.no_ender_teleportation"),
+    PLAYER_PVP(true, null),
+    ITEM_USE(true, null),
+    ELYTRA_FLIGHT(true, "message.structures_tweaker.no_elytra"),
+    CREATIVE_FLIGHT(true, "message.structures_tweaker.no_creative_flight");
+
+    private final boolean playerCentric;
+    @Nullable
+    private final String denyMessage;
+
+    StructureAction(boolean playerCentric, @Nullable String denyMessage) {
+        this.playerCentric = playerCentric;
+        this.denyMessage = denyMessage;
+    }
+
+    public boolean isPlayerCentric() {
+        return playerCentric;
+    }
+
+    /**
+     * Translation key shown to a player denied this action, if it has a single fixed one
+     */
+    @Nullable
+    public String denyMessage() {
+        return denyMessage;
+    }
+}
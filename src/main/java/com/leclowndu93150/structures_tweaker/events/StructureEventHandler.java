@@ -3,14 +3,21 @@ package com.leclowndu93150.structures_tweaker.events;
 import com.leclowndu93150.baguettelib.event.entity.CreativeFlightEvent;
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
 import com.leclowndu93150.structures_tweaker.cache.StructureCache;
+import com.leclowndu93150.structures_tweaker.cache.StructureIdTable;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstance;
+import com.leclowndu93150.structures_tweaker.cache.StructureInstanceId;
+import com.leclowndu93150.structures_tweaker.cache.StructureResolver;
 import com.leclowndu93150.structures_tweaker.config.core.StructureConfig;
 import com.leclowndu93150.structures_tweaker.config.core.StructureConfigManager;
 import com.leclowndu93150.structures_tweaker.data.DefeatedStructuresData;
 import com.leclowndu93150.structures_tweaker.data.EmptyChunksData;
+import com.leclowndu93150.structures_tweaker.data.LevelStructureContext;
 import com.leclowndu93150.structures_tweaker.data.StructureBlocksData;
 //import dev.architectury.event.EventResult;
 //import dev.architectury.utils.value.IntValue;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
@@ -26,6 +33,8 @@ import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.BlockItem;
 import net.minecraft.world.item.BucketItem;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.Items;
 import net.minecraft.world.item.TridentItem;
 import net.minecraft.world.level.ChunkPos;
@@ -35,8 +44,10 @@ import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureStart;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.neoforge.common.util.TriState;
+import net.neoforged.neoforge.event.TagsUpdatedEvent;
 import net.neoforged.neoforge.event.entity.EntityMobGriefingEvent;
 import net.neoforged.neoforge.event.entity.EntityTeleportEvent;
 import net.neoforged.neoforge.event.entity.living.MobSpawnEvent;
@@ -51,18 +62,22 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.BiPredicate;
 
 public class StructureEventHandler {
     private final StructureConfigManager configManager;
     private final StructureCache structureCache;
     public final Map<ResourceLocation, DynamicStructureFlags> structureFlags;
-    private int tickCounter = 0;
+    private final PlayerStructureTracker playerTracker;
+    // Bumped whenever policies change so memoized decisions are never reused across a change
+    private volatile int decisionEpoch;
+    // Policies by registry index, rebuilt from structureFlags whenever they change
+    private volatile DynamicStructureFlags[] policies = new DynamicStructureFlags[0];
+
+    private static final int FLIGHT_CHECK_INTERVAL = 20;
 
     private static final Logger LOGGER = LogManager.getLogger(StructuresTweaker.MODID);
 
@@ -70,20 +85,58 @@ public class StructureEventHandler {
         this.configManager = configManager;
         this.structureCache = structureCache;
         this.structureFlags = new ConcurrentHashMap<>();
+        this.playerTracker = new PlayerStructureTracker(this);
     }
 
     public void reloadFlags() {
+        StructureIdTable table = structureCache.getIdTable();
         structureFlags.clear();
         configManager.getAllConfigs().forEach((id, config) -> {
-            ResourceLocation normalizedId = normalizeStructureId(id);
+            ResourceLocation normalizedId = table.normalize(id);
             structureFlags.put(normalizedId, new DynamicStructureFlags(config));
         });
+        rebuildPolicies();
+        invalidateDecisions();
     }
     
     public void updateStructureFlag(ResourceLocation structureId, StructureConfig config) {
-        ResourceLocation normalizedId = normalizeStructureId(structureId);
+        ResourceLocation normalizedId = structureCache.getIdTable().normalize(structureId);
         structureFlags.put(normalizedId, new DynamicStructureFlags(config));
         LOGGER.info("Updated structure flags for {}", normalizedId);
+        rebuildPolicies();
+        invalidateDecisions();
+    }
+
+    /**
+     * Lays the policies out by registry index for the hot path and tells the cache which
+     * registry indices use piece-level bounds
+     */
+    private void rebuildPolicies() {
+        StructureIdTable table = structureCache.getIdTable();
+        DynamicStructureFlags[] indexed = new DynamicStructureFlags[table.size()];
+        BitSet precise = new BitSet();
+        for (int index = 0; index < indexed.length; index++) {
+            ResourceLocation id = table.canonicalId(index);
+            DynamicStructureFlags flags = id != null ? structureFlags.get(id) : null;
+            indexed[index] = flags;
+            if (flags != null && flags.precisePieceBounds()) {
+                precise.set(index);
+            }
+        }
+        policies = indexed;
+        if (structureCache.setPreciseStructures(precise)) {
+            playerTracker.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the policy of the instance's structure, or null if it has none
+     */
+    @Nullable
+    public DynamicStructureFlags getPolicy(StructureInstance instance) {
+        DynamicStructureFlags[] indexed = policies;
+        int index = StructureInstanceId.registryIndex(instance.id);
+        return index < indexed.length ? indexed[index] : null;
     }
 
 //    public EventResult breakBlock(Level level, BlockPos pos, BlockState blockState, ServerPlayer player, @Nullable IntValue intValue) {
@@ -149,44 +202,13 @@ public class StructureEventHandler {
             return;
         }
 
-        handleStructureEvent(event.getPlayer().level(), event.getPos(), event.getPlayer(), (structure, flags) -> {
-            Block block = event.getState().getBlock();
-            ResourceLocation blockId = event.getPlayer().level().registryAccess()
-                    .registryOrThrow(Registries.BLOCK).getKey(block);
-
-            if (blockId != null) {
-                String blockIdStr = blockId.toString();
-
-                List<String> whitelist = flags.getBlockBreakWhitelist();
-                if (whitelist != null && !whitelist.isEmpty() && whitelist.contains(blockIdStr)) {
-                    return false;
-                }
-
-                List<String> blacklist = flags.getBlockBreakBlacklist();
-                if (blacklist != null && !blacklist.isEmpty() && blacklist.contains(blockIdStr)) {
-                    event.setCanceled(true);
-                    return true;
-                }
-            }
-
-            StructureBlocksData blockData = StructureBlocksData.get(serverLevel);
-
-            if (flags.onlyProtectOriginalBlocks()) {
-                if (blockData.isPlayerPlaced(event.getPos())) {
-                    blockData.removePlayerBlock(event.getPos());
-                    return false;
-                }
-                event.setCanceled(true);
-                return true;
-            }
-
-            if (!flags.canBreakBlocks()) {
-                event.setCanceled(true);
-                return true;
-            }
-
-            return false;
-        });
+        QueryContext context = QueryContext.begin().block(event.getState().getBlock());
+        Verdict verdict = query(event.getPlayer().level(), event.getPos(), StructureAction.BLOCK_BREAK, event.getPlayer());
+        if (verdict == Verdict.DENY) {
+            event.setCanceled(true);
+        } else if (verdict == Verdict.ALLOW && context.flags().onlyProtectOriginalBlocks()) {
+            LevelStructureContext.get(serverLevel).blocks().removePlayerBlock(event.getPos());
+        }
     }
 
 
@@ -196,46 +218,13 @@ public class StructureEventHandler {
                 !(event.getLevel() instanceof ServerLevel serverLevel)) return;
         if (!configManager.isReady()) return;
 
-        handleStructureEvent(Objects.requireNonNull(event.getEntity()).level(), event.getPos(), player, (structure, flags) -> {
-            Block block = event.getPlacedBlock().getBlock();
-            ResourceLocation blockId = event.getEntity().level().registryAccess()
-                    .registryOrThrow(Registries.BLOCK).getKey(block);
-            
-            if (blockId != null) {
-                String blockIdStr = blockId.toString();
-                
-                List<String> whitelist = flags.getBlockPlaceWhitelist();
-                if (whitelist != null && !whitelist.isEmpty() && whitelist.contains(blockIdStr)) {
-                    if (!event.isCanceled()) {
-                        StructureBlocksData blockData = StructureBlocksData.get(serverLevel);
-                        blockData.addPlayerBlock(structure, event.getPos());
-                    }
-                    return false;
-                }
-                
-                List<String> blacklist = flags.getBlockPlaceBlacklist();
-                if (blacklist != null && !blacklist.isEmpty() && blacklist.contains(blockIdStr)) {
-                    event.setCanceled(true);
-                    return true;
-                }
-            }
-            
-            if (event.getPlacedBlock().getBlock() == Blocks.FIRE) {
-                if (!flags.allowFireSpread()) {
-                    event.setCanceled(true);
-                    return true;
-                }
-            } else if (!flags.canPlaceBlocks()) {
-                event.setCanceled(true);
-                return true;
-            }
-
-            if (!event.isCanceled()) {
-                StructureBlocksData blockData = StructureBlocksData.get(serverLevel);
-                blockData.addPlayerBlock(structure, event.getPos());
-            }
-            return false;
-        });
+        QueryContext context = QueryContext.begin().block(event.getPlacedBlock().getBlock());
+        Verdict verdict = query(player.level(), event.getPos(), StructureAction.BLOCK_PLACE, player);
+        if (verdict == Verdict.DENY) {
+            event.setCanceled(true);
+        } else if (verdict == Verdict.ALLOW && !event.isCanceled()) {
+            LevelStructureContext.get(serverLevel).blocks().addPlayerBlock(context.instance().id, event.getPos());
+        }
     }
 
     @SubscribeEvent
@@ -243,45 +232,16 @@ public class StructureEventHandler {
         if (event.getLevel().isClientSide()) return;
         if (!configManager.isReady()) return;
 
-        handleStructureEvent(event.getLevel(), event.getPos(), event.getEntity(), (structure, flags) -> {
-            Block block = event.getLevel().getBlockState(event.getPos()).getBlock();
-            ResourceLocation blockId = event.getLevel().registryAccess()
-                    .registryOrThrow(Registries.BLOCK).getKey(block);
-            
-            if (blockId != null) {
-                String blockIdStr = blockId.toString();
-                
-                List<String> whitelist = flags.getInteractionWhitelist();
-                if (whitelist != null && !whitelist.isEmpty() && whitelist.contains(blockIdStr)) {
-                    return false;
-                }
-                
-                List<String> blacklist = flags.getInteractionBlacklist();
-                if (blacklist != null && !blacklist.isEmpty() && blacklist.contains(blockIdStr)) {
-                    event.setCanceled(true);
-                    return true;
-                }
-            }
-            
-            if (!flags.canInteract()) {
-                if (event.getItemStack().getItem() instanceof BlockItem blockItem) {
-                    ResourceLocation itemBlockId = event.getLevel().registryAccess()
-                            .registryOrThrow(Registries.BLOCK).getKey(blockItem.getBlock());
-                    if (itemBlockId != null) {
-                        List<String> placeWhitelist = flags.getBlockPlaceWhitelist();
-                        if (placeWhitelist != null && !placeWhitelist.isEmpty() && placeWhitelist.contains(itemBlockId.toString())) {
-                            event.setUseBlock(TriState.FALSE);
-                            event.setUseItem(TriState.TRUE);
-                            return false;
-                        }
-                    }
-                }
-                
-                event.setCanceled(true);
-                return true;
-            }
-            return false;
-        });
+        QueryContext.begin()
+                .block(event.getLevel().getBlockState(event.getPos()).getBlock())
+                .item(event.getItemStack());
+        Verdict verdict = query(event.getLevel(), event.getPos(), StructureAction.INTERACT, event.getEntity());
+        if (verdict == Verdict.DENY) {
+            event.setCanceled(true);
+        } else if (verdict == Verdict.USE_ITEM_ONLY) {
+            event.setUseBlock(TriState.FALSE);
+            event.setUseItem(TriState.TRUE);
+        }
     }
 
     @SubscribeEvent
@@ -290,17 +250,11 @@ public class StructureEventHandler {
 
         Entity source = event.getExplosion().getDirectSourceEntity();
         BlockPos pos = source != null ? source.blockPosition() :
-                new BlockPos((int)event.getExplosion().x,
-                        (int)event.getExplosion().y,
-                        (int)event.getExplosion().z);
-
-        handleStructureEvent(event.getLevel(), pos, (structure, flags) -> {
-            if (!flags.allowExplosions()) {
-                event.setCanceled(true);
-                return true;
-            }
-            return false;
-        });
+                QueryContext.begin().pos(event.getExplosion().x, event.getExplosion().y, event.getExplosion().z);
+
+        if (query(event.getLevel(), pos, StructureAction.EXPLOSION, null) == Verdict.DENY) {
+            event.setCanceled(true);
+        }
     }
 
       //Called too early, want to minimize the number of checks
@@ -355,36 +309,18 @@ public class StructureEventHandler {
             return;
         }
         
-        BlockPos pos = entity.blockPosition();
-
-        handleStructureEvent(level, pos, (structure, flags) -> {
-            if (!flags.allowCreatureSpawning()) {
-                event.setResult(MobSpawnEvent.PositionCheck.Result.FAIL);
-                return true;
-            }
-
-            MobCategory category = entity.getType().getCategory();
-
-            if (flags.preventHostileSpawns() && isHostileMob(category)) {
-                event.setResult(MobSpawnEvent.PositionCheck.Result.FAIL);
-                return true;
-            }
-
-            if (flags.preventPassiveSpawns() && isPassiveMob(category)) {
-                event.setResult(MobSpawnEvent.PositionCheck.Result.FAIL);
-                return true;
-            }
-            
-            return false;
-        });
+        QueryContext.begin().mobCategory(entity.getType().getCategory());
+        if (query(level, entity.blockPosition(), StructureAction.MOB_SPAWN, null) == Verdict.DENY) {
+            event.setResult(MobSpawnEvent.PositionCheck.Result.FAIL);
+        }
     }
     
-    private boolean isHostileMob(MobCategory category) {
+    private static boolean isHostileMob(MobCategory category) {
         return category == MobCategory.MONSTER || 
                category == MobCategory.UNDERGROUND_WATER_CREATURE;
     }
     
-    private boolean isPassiveMob(MobCategory category) {
+    private static boolean isPassiveMob(MobCategory category) {
         return category == MobCategory.CREATURE || 
                category == MobCategory.WATER_CREATURE ||
                category == MobCategory.AMBIENT ||
@@ -397,15 +333,9 @@ public class StructureEventHandler {
         if (event.getEntity().level().isClientSide()) return;
         if (!configManager.isReady()) return;
 
-        if (event.getTarget() instanceof Player && event.getEntity() instanceof Player player) {
-            handleStructureEvent(event.getEntity().level(), event.getEntity().blockPosition(), player,
-                    (structure, flags) -> {
-                        if (!flags.allowPlayerPVP()) {
-                            event.setCanceled(true);
-                            return true;
-                        }
-                        return false;
-                    });
+        if (event.getTarget() instanceof Player && event.getEntity() instanceof ServerPlayer player
+                && query(player.level(), player.blockPosition(), StructureAction.PLAYER_PVP, player) == Verdict.DENY) {
+            event.setCanceled(true);
         }
     }
 
@@ -414,131 +344,260 @@ public class StructureEventHandler {
         if (!configManager.isReady()) return;
 
         ItemEntity item = event.getItemEntity();
-        handleStructureEvent(item.level(), item.blockPosition(), event.getPlayer(), (structure, flags) -> {
-            if (!flags.allowItemPickup()) {
-                event.setCanPickup(TriState.FALSE);
-                return true;
-            }
-            return false;
-        });
+        if (query(item.level(), item.blockPosition(), StructureAction.ITEM_PICKUP, event.getPlayer()) == Verdict.DENY) {
+            event.setCanPickup(TriState.FALSE);
+        }
     }
 
 
+    @SubscribeEvent
+    public void onTagsUpdated(TagsUpdatedEvent event) {
+        // Block/item lists expand tags at compile time, so recompile once tags are rebound
+        if (event.getUpdateCause() == TagsUpdatedEvent.UpdateCause.SERVER_DATA_LOAD && configManager.isReady()) {
+            reloadFlags();
+        }
+    }
+
     @SubscribeEvent
     public void onServerStopped(ServerStoppedEvent event) {
         structureFlags.clear();
+        policies = new DynamicStructureFlags[0];
     }
 
-    public void handleStructureEvent(Level level, BlockPos pos, BiPredicate<ResourceLocation, DynamicStructureFlags> callback) {
-        handleStructureEvent(level, pos, null, callback);
+    /**
+     * Decides an action at a position against the rules of the structure there, resolving the
+     * structure once. Subjects the rules look at (block, held item, mob category) are passed in
+     * through {@link QueryContext#begin()}; the matched structure, its flags and a message for
+     * denied players can be read back from the same context. Allocates nothing once the
+     * structure is cached, and repeated block actions by the same player are answered from
+     * their {@link DecisionMemo} for a few ticks.
+     */
+    public Verdict query(Level level, BlockPos pos, StructureAction action, @Nullable Player player) {
+        QueryContext context = QueryContext.current();
+        // Copy the subject out first: resolving can post tracker events that run nested queries
+        Block block = context.block;
+        ItemStack item = context.item;
+        MobCategory mobCategory = context.mobCategory;
+        context.clearResult();
+
+        if (!configManager.isReady() || !(level instanceof ServerLevel serverLevel)) {
+            return Verdict.PASS;
+        }
+
+        if (!isMemoizable(action) || !(player instanceof ServerPlayer serverPlayer) || !serverPlayer.server.isSameThread()) {
+            return evaluate(serverLevel, pos, action, player, context, block, item, mobCategory);
+        }
+
+        DecisionMemo memo = playerTracker.getDecisionMemo(serverPlayer);
+        long key = pos.asLong();
+        Item heldItem = item != null ? item.getItem() : null;
+        boolean creative = player.isCreative();
+        int epoch = decisionEpoch + DefeatedStructuresData.changeCount();
+        int tick = serverPlayer.server.getTickCount();
+        Verdict verdict = memo.lookup(context, action, level, key, block, heldItem, creative, epoch, tick);
+        if (verdict == null) {
+            verdict = evaluate(serverLevel, pos, action, player, context, block, item, mobCategory);
+            // Original-block protection depends on placements the memo would not see
+            if (action != StructureAction.BLOCK_BREAK || context.flags == null || !context.flags.onlyProtectOriginalBlocks()) {
+                memo.store(context, action, level, key, block, heldItem, creative, epoch, tick, verdict);
+            }
+        }
+        return verdict;
     }
-    
-    public void handleStructureEvent(Level level, BlockPos pos, @Nullable Player player, BiPredicate<ResourceLocation, DynamicStructureFlags> callback) {
-        if (Thread.currentThread().getName().contains("worldgen") || 
-            !configManager.isReady() || 
-            !level.hasChunkAt(pos) ||
-            !(level instanceof ServerLevel serverLevel)) {
-            return;
+
+    /**
+     * Block actions come in bursts at one position and depend only on what the memo keys on
+     */
+    private static boolean isMemoizable(StructureAction action) {
+        return action == StructureAction.BLOCK_BREAK || action == StructureAction.BLOCK_PLACE
+                || action == StructureAction.FLUID_PLACE || action == StructureAction.INTERACT;
+    }
+
+    /**
+     * Drops every memoized decision, e.g. after policies change
+     */
+    public void invalidateDecisions() {
+        decisionEpoch++;
+    }
+
+    private Verdict evaluate(ServerLevel level, BlockPos pos, StructureAction action, @Nullable Player player, QueryContext context,
+                             @Nullable Block block, @Nullable ItemStack item, @Nullable MobCategory mobCategory) {
+        boolean serverThread = level.getServer().isSameThread();
+        StructureInstance instance;
+        if (!serverThread) {
+            // Resolving loads chunks and saved data, so other threads only read the cache and pass on a miss
+            if (Thread.currentThread().getName().contains("worldgen")) {
+                return Verdict.PASS;
+            }
+            instance = structureCache.getInstanceAt(level, pos);
+        } else if (action.isPlayerCentric() && player instanceof ServerPlayer serverPlayer) {
+            instance = playerTracker.getCurrentStructure(serverPlayer);
+        } else {
+            if (!level.hasChunkAt(pos)) {
+                return Verdict.PASS;
+            }
+            instance = resolveInstance(level, pos);
         }
-        
-        if (player != null && player.isCreative()) {
-            ResourceLocation cached = structureCache.getStructureAtPosition(level, pos);
-            if (cached != null) {
-                DynamicStructureFlags flags = structureFlags.get(cached);
-                if (flags != null && flags.creativeBypass()) {
-                    return;
+        if (instance == null) {
+            return Verdict.PASS;
+        }
+        LevelStructureContext data = serverThread ? LevelStructureContext.get(level) : LevelStructureContext.getIfPresent(level);
+        if (data == null) {
+            return Verdict.PASS;
+        }
+
+        DynamicStructureFlags flags = getPolicy(instance);
+        if (flags == null) {
+            return Verdict.PASS;
+        }
+        if (player != null && player.isCreative() && flags.creativeBypass()) {
+            return Verdict.PASS;
+        }
+        if (instance.isDefeated(data.defeated())) {
+            return Verdict.PASS;
+        }
+        // Placed blocks are kept with chunks, which only the server thread may load
+        if (!serverThread && action == StructureAction.BLOCK_BREAK && flags.onlyProtectOriginalBlocks()) {
+            return Verdict.PASS;
+        }
+
+        context.instance = instance;
+        context.flags = flags;
+        Verdict verdict = decide(action, flags, context, data, pos, player, block, item, mobCategory);
+        if (verdict == Verdict.DENY && context.denyMessage == null) {
+            context.denyMessage = action.denyMessage();
+        }
+        return verdict;
+    }
+
+    /**
+     * Applies the subject-specific rules of an action, then falls back to the policy's dispatch table
+     */
+    private static Verdict decide(StructureAction action, DynamicStructureFlags flags, QueryContext context, LevelStructureContext data,
+                                  BlockPos pos, @Nullable Player player, @Nullable Block block, @Nullable ItemStack item,
+                                  @Nullable MobCategory mobCategory) {
+        switch (action) {
+            case BLOCK_BREAK -> {
+                if (flags.getBlockBreakWhitelist().contains(block)) return Verdict.ALLOW;
+                if (flags.getBlockBreakBlacklist().contains(block)) return Verdict.DENY;
+                if (flags.onlyProtectOriginalBlocks()) {
+                    return data.blocks().isPlayerPlaced(pos) ? Verdict.ALLOW : Verdict.DENY;
+                }
+            }
+            case BLOCK_PLACE, FLUID_PLACE -> {
+                if (flags.getBlockPlaceWhitelist().contains(block)) return Verdict.ALLOW;
+                if (flags.getBlockPlaceBlacklist().contains(block)) return Verdict.DENY;
+                if (block == Blocks.FIRE) return flags.allowFireSpread() ? Verdict.ALLOW : Verdict.DENY;
+            }
+            case INTERACT -> {
+                if (flags.getInteractionWhitelist().contains(block)) return Verdict.ALLOW;
+                if (flags.getInteractionBlacklist().contains(block)) return Verdict.DENY;
+                if (!flags.canInteract() && item != null && item.getItem() instanceof BlockItem blockItem
+                        && flags.getBlockPlaceWhitelist().contains(blockItem.getBlock())) {
+                    return Verdict.USE_ITEM_ONLY;
+                }
+            }
+            case MOB_SPAWN -> {
+                if (mobCategory != null && (flags.preventHostileSpawns() && isHostileMob(mobCategory)
+                        || flags.preventPassiveSpawns() && isPassiveMob(mobCategory))) {
+                    return Verdict.DENY;
+                }
+            }
+            case ITEM_USE -> {
+                if (item == null || flags.getItemUseWhitelist().contains(item.getItem())) return Verdict.ALLOW;
+                if (flags.getItemUseBlacklist().contains(item.getItem())) {
+                    return deny(context, "message.structures_tweaker.item_blacklisted");
                 }
+                if (!flags.allowEnderPearls() && item.is(Items.ENDER_PEARL)) {
+                    return deny(context, "message.structures_tweaker.no_pearls");
+                }
+                if (!flags.allowRiptide() && item.getItem() instanceof TridentItem && player != null && player.isInWaterOrRain()) {
+                    return deny(context, "message.structures_tweaker.no_riptide");
+                }
+            }
+            default -> {
             }
         }
+        return flags.verdict(action);
+    }
+
+    private static Verdict deny(QueryContext context, String message) {
+        context.denyMessage = message;
+        return Verdict.DENY;
+    }
 
-        ResourceLocation cached = structureCache.getStructureAtPosition(level, pos);
+    /**
+     * Returns the structure instance at the position, resolving and caching it on a cache miss
+     */
+    @Nullable
+    public StructureInstance resolveInstance(ServerLevel level, BlockPos pos) {
+        StructureInstance cached = structureCache.getInstanceAt(level, pos);
         if (cached != null) {
-            DynamicStructureFlags flags = structureFlags.get(cached);
-            if (flags != null) {
-                DefeatedStructuresData data = DefeatedStructuresData.get(serverLevel);
-                var bounds = structureCache.getCachedBounds(level, cached, pos);
-                if (bounds != null && data.isDefeated(cached, bounds)) {
-                    return;
-                }
-                callback.test(cached, flags);
-            }
-            return;
+            return cached;
+        }
+
+        int chunkX = SectionPos.blockToSectionCoord(pos.getX());
+        int chunkZ = SectionPos.blockToSectionCoord(pos.getZ());
+        EmptyChunksData emptyChunks = LevelStructureContext.get(level).emptyChunks();
+        if (emptyChunks.isEmpty(chunkX, chunkZ)) {
+            return null;
         }
 
-        var registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
-        boolean foundStructure = false;
-
-        for (Structure structure : registry) {
-            ResourceLocation id = registry.getKey(structure);
-            if (id == null) continue;
-
-            var reference = serverLevel.structureManager().getStructureAt(pos, structure);
-            if (reference.isValid()) {
-                foundStructure = true;
-                id = normalizeStructureId(id);
-                
-                var bounds = reference.getBoundingBox();
-                structureCache.cacheStructure(level, pos, id, bounds);
-                structureCache.cacheStructureBounds(level, id, bounds);
-
-                DynamicStructureFlags flags = structureFlags.get(id);
-                if (flags != null) {
-                    DefeatedStructuresData data = DefeatedStructuresData.get(serverLevel);
-                    if (!data.isDefeated(id, bounds)) {
-                        callback.test(id, flags);
-                    }
+        StructureStart start = StructureResolver.resolve(level, pos);
+        if (start != null && structureCache.isPrecise(level, start)) {
+            // Resolution matches envelopes; a precise structure may not own this position, so
+            // cache every candidate and keep the lowest registry id whose pieces contain it
+            StructureInstance found = null;
+            for (StructureStart candidate : StructureResolver.resolveAll(level, pos)) {
+                StructureInstance instance = cacheResolved(level, candidate);
+                if (instance != null && instance.contains(pos.getX(), pos.getY(), pos.getZ()) && (found == null
+                        || StructureInstanceId.registryIndex(instance.id) < StructureInstanceId.registryIndex(found.id))) {
+                    found = instance;
                 }
-                break;
             }
+            return found;
+        }
+        if (start == null) {
+            // Only chunks without any references are provably empty; others just miss at this position
+            if (!StructureResolver.hasReferences(level, chunkX, chunkZ)) {
+                emptyChunks.markEmpty(new ChunkPos(chunkX, chunkZ));
+            }
+            return null;
         }
 
-        if (!foundStructure) {
-            EmptyChunksData.get(serverLevel).markEmpty(new ChunkPos(pos));
+        return cacheResolved(level, start);
+    }
+
+    @Nullable
+    private StructureInstance cacheResolved(ServerLevel level, StructureStart start) {
+        Registry<Structure> registry = level.registryAccess().registryOrThrow(Registries.STRUCTURE);
+        ResourceLocation id = registry.getKey(start.getStructure());
+        if (id == null) {
+            return null;
         }
+        long instanceId = StructureInstanceId.of(registry, start);
+        ResourceLocation canonicalId = structureCache.getIdTable().canonicalId(StructureInstanceId.registryIndex(instanceId), id);
+        structureCache.recordPersistent(level, id, start.getChunkPos().x, start.getChunkPos().z, start.getBoundingBox());
+        return structureCache.cacheInstance(level, structureCache.createInstance(instanceId, canonicalId, start));
+    }
+
+    public PlayerStructureTracker getPlayerTracker() {
+        return playerTracker;
     }
     
 
     @SubscribeEvent
     public void onItemUse(PlayerInteractEvent.RightClickItem event) {
-        if (event.getLevel().isClientSide()) return;
-        Player player = event.getEntity();
-        handleStructureEvent(player.level(), player.blockPosition(), player, (structure, flags) -> {
-            ResourceLocation itemId = event.getLevel().registryAccess()
-                    .registryOrThrow(Registries.ITEM).getKey(event.getItemStack().getItem());
-            
-            if (itemId != null) {
-                String itemIdStr = itemId.toString();
-                
-                List<String> whitelist = flags.getItemUseWhitelist();
-                if (whitelist != null && !whitelist.isEmpty() && whitelist.contains(itemIdStr)) {
-                    return false;
-                }
-                
-                List<String> blacklist = flags.getItemUseBlacklist();
-                if (blacklist != null && !blacklist.isEmpty() && blacklist.contains(itemIdStr)) {
-                    event.setCanceled(true);
-                    player.displayClientMessage(Component.translatable("message.structures_tweaker.item_blacklisted"), true);
-                    return true;
-                }
-            }
-            
-            if (!flags.allowEnderPearls() && event.getItemStack().is(Items.ENDER_PEARL)) {
-                event.setCanceled(true);
-                player.displayClientMessage(Component.translatable("message.structures_tweaker.no_pearls"), true);
-                return true;
-            }
-            if (!flags.allowRiptide() && event.getItemStack().getItem() instanceof TridentItem) {
-                if (player.isInWaterOrRain()) {
-                    event.setCanceled(true);
-                    player.displayClientMessage(Component.translatable("message.structures_tweaker.no_riptide"), true);
-                    return true;
-                }
-            }
-            return false;
-        });
+        if (event.getLevel().isClientSide() || !(event.getEntity() instanceof ServerPlayer player)) return;
+
+        QueryContext context = QueryContext.begin().item(event.getItemStack());
+        if (query(player.level(), player.blockPosition(), StructureAction.ITEM_USE, player) == Verdict.DENY) {
+            event.setCanceled(true);
+            player.displayClientMessage(Component.translatable(context.denyMessage()), true);
+        }
     }
 
-    private ResourceLocation normalizeStructureId(ResourceLocation id) {
+    public static ResourceLocation normalizeStructureId(ResourceLocation id) {
         String namespace = id.getNamespace();
         String path = id.getPath();
         if (path.startsWith(namespace + "/")) {
@@ -551,19 +610,11 @@ public class StructureEventHandler {
     public static void setInstance(StructureEventHandler handler) {
         INSTANCE = handler;
     }
-    public static boolean shouldCancelElytraFlight(Level level, BlockPos pos) {
-        if (level.isClientSide() || !(level instanceof ServerLevel) || INSTANCE == null) {
+    public static boolean shouldCancelElytraFlight(Player player) {
+        if (!(player instanceof ServerPlayer serverPlayer) || INSTANCE == null) {
             return false;
         }
-        AtomicBoolean shouldCancel = new AtomicBoolean(false);
-        INSTANCE.handleStructureEvent(level, pos, (structure, flags) -> {
-            if (!flags.allowElytraFlight()) {
-                shouldCancel.set(true);
-                return true;
-            }
-            return false;
-        });
-        return shouldCancel.get();
+        return INSTANCE.query(serverPlayer.level(), serverPlayer.blockPosition(), StructureAction.ELYTRA_FLIGHT, serverPlayer) == Verdict.DENY;
     }
     
     @SubscribeEvent
@@ -572,7 +623,7 @@ public class StructureEventHandler {
             return;
         }
         
-        if (!(event.getPlayer().level() instanceof ServerLevel)) {
+        if (!(event.getPlayer() instanceof ServerPlayer player)) {
             return;
         }
 
@@ -580,15 +631,12 @@ public class StructureEventHandler {
             return;
         }
         
-        handleStructureEvent(event.getPlayer().level(), event.getPlayer().blockPosition(), event.getPlayer(), (structure, flags) -> {
-            if (!flags.allowCreativeFlight()) {
-                event.getPlayer().displayClientMessage(Component.translatable("message.structures_tweaker.no_creative_flight"), true);
-                event.setCanceled(true);
-                event.setFlightState(false);
-                return true;
-            }
-            return false;
-        });
+        QueryContext context = QueryContext.begin();
+        if (query(player.level(), player.blockPosition(), StructureAction.CREATIVE_FLIGHT, player) == Verdict.DENY) {
+            player.displayClientMessage(Component.translatable(context.denyMessage()), true);
+            event.setCanceled(true);
+            event.setFlightState(false);
+        }
     }
     
     @SubscribeEvent
@@ -602,16 +650,7 @@ public class StructureEventHandler {
             return;
         }
         
-        BlockPos targetPos = new BlockPos((int)event.getTargetX(), (int)event.getTargetY(), (int)event.getTargetZ());
-        
-        handleStructureEvent(player.level(), targetPos, player, (structure, flags) -> {
-            if (!flags.allowEnderTeleportation()) {
-                event.setCanceled(true);
-                player.displayClientMessage(Component.translatable("message.structures_tweaker.no_ender_teleportation"), true);
-                return true;
-            }
-            return false;
-        });
+        denyTeleport(event, player, event.getTargetX(), event.getTargetY(), event.getTargetZ());
     }
     
     @SubscribeEvent
@@ -628,47 +667,67 @@ public class StructureEventHandler {
             return;
         }
         
-        BlockPos targetPos = new BlockPos((int)event.getTargetX(), (int)event.getTargetY(), (int)event.getTargetZ());
-        
-        handleStructureEvent(player.level(), targetPos, player, (structure, flags) -> {
-            if (!flags.allowEnderTeleportation()) {
-                event.setCanceled(true);
-                player.displayClientMessage(Component.translatable("message.structures_tweaker.no_ender_teleportation"), true);
-                return true;
-            }
-            return false;
-        });
+        denyTeleport(event, player, event.getTargetX(), event.getTargetY(), event.getTargetZ());
+    }
+
+    private void denyTeleport(EntityTeleportEvent event, Player player, double x, double y, double z) {
+        QueryContext context = QueryContext.begin();
+        if (query(player.level(), context.pos(x, y, z), StructureAction.ENDER_TELEPORT, player) == Verdict.DENY) {
+            event.setCanceled(true);
+            player.displayClientMessage(Component.translatable(context.denyMessage()), true);
+        }
     }
     
+    /**
+     * Flight rules are enforced as soon as a player enters a structure
+     */
     @SubscribeEvent
-    public void onPlayerTick(PlayerTickEvent.Post event) {
+    public void onStructureEnter(PlayerStructureEvent.Enter event) {
         if (!configManager.isReady()) {
             return;
         }
-        
-        tickCounter++;
-        if (tickCounter % 20 != 0) {
+        ServerPlayer player = event.getEntity();
+        if (player.getAbilities().flying || player.isFallFlying()) {
+            enforceFlightRules(player);
+        }
+    }
+
+    /**
+     * Fallback for players who start flying while already inside a structure. Each player is
+     * checked once every {@link #FLIGHT_CHECK_INTERVAL} ticks, offset by entity id so the checks
+     * are spread evenly across ticks instead of all landing on the same one.
+     */
+    @SubscribeEvent
+    public void onPlayerTick(PlayerTickEvent.Post event) {
+        if (!configManager.isReady()) {
             return;
         }
-        
-        Player player = event.getEntity();
-        if (player.level().isClientSide() || !player.getAbilities().flying) {
+
+        if (!(event.getEntity() instanceof ServerPlayer player)) {
             return;
         }
-        
-        if (!(player.level() instanceof ServerLevel)) {
+
+        if ((player.server.getTickCount() + player.getId()) % FLIGHT_CHECK_INTERVAL != 0) {
             return;
         }
-        
-        handleStructureEvent(player.level(), player.blockPosition(), player, (structure, flags) -> {
-            if (!flags.allowCreativeFlight()) {
-                player.getAbilities().flying = false;
-                player.onUpdateAbilities();
-                player.displayClientMessage(Component.translatable("message.structures_tweaker.no_creative_flight"), true);
-                return true;
-            }
-            return false;
-        });
+
+        if (player.getAbilities().flying || player.isFallFlying()) {
+            enforceFlightRules(player);
+        }
+    }
+
+    private void enforceFlightRules(ServerPlayer player) {
+        QueryContext context = QueryContext.begin();
+        if (player.getAbilities().flying
+                && query(player.level(), player.blockPosition(), StructureAction.CREATIVE_FLIGHT, player) == Verdict.DENY) {
+            player.getAbilities().flying = false;
+            player.onUpdateAbilities();
+            player.displayClientMessage(Component.translatable(context.denyMessage()), true);
+        } else if (player.isFallFlying()
+                && query(player.level(), player.blockPosition(), StructureAction.ELYTRA_FLIGHT, player) == Verdict.DENY) {
+            player.stopFallFlying();
+            player.displayClientMessage(Component.translatable(context.denyMessage()), true);
+        }
     }
     
     @SubscribeEvent
@@ -682,13 +741,9 @@ public class StructureEventHandler {
             return;
         }
         
-        handleStructureEvent(entity.level(), entity.blockPosition(), (structure, flags) -> {
-            if (flags.preventMobGriefing()) {
-                event.setCanGrief(false);
-                return true;
-            }
-            return false;
-        });
+        if (query(entity.level(), entity.blockPosition(), StructureAction.MOB_GRIEFING, null) == Verdict.DENY) {
+            event.setCanGrief(false);
+        }
     }
 
 }
\ No newline at end of file
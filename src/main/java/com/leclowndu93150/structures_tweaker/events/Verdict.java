@@ -0,0 +1,15 @@
+package com.leclowndu93150.structures_tweaker.events;
+
+/**
+ * Outcome of {@link StructureEventHandler#query}
+ */
+public enum Verdict {
+    /** No structure rule applies: outside any configured structure, defeated, or creative bypass */
+    PASS,
+    /** Inside a structure whose rules allow the action */
+    ALLOW,
+    /** Inside a structure whose rules forbid the action */
+    DENY,
+    /** Interactions only: the clicked block must not be used, but the held block item may be placed */
+    USE_ITEM_ONLY
+}
@@ -1,18 +1,21 @@
 package com.leclowndu93150.structures_tweaker.mixin;
 
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
-import com.leclowndu93150.structures_tweaker.cache.StructureCache;
-import com.leclowndu93150.structures_tweaker.events.DynamicStructureFlags;
+import com.leclowndu93150.structures_tweaker.events.QueryContext;
+import com.leclowndu93150.structures_tweaker.events.StructureAction;
 import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
+import com.leclowndu93150.structures_tweaker.events.Verdict;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.item.BucketItem;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.material.Fluid;
 import net.minecraft.world.phys.BlockHitResult;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
@@ -21,6 +24,10 @@ import javax.annotation.Nullable;
 
 @Mixin(BucketItem.class)
 public abstract class BucketItemMixin {
+    @Shadow
+    @Final
+    private Fluid content;
+
     @Inject(method = "emptyContents(Lnet/minecraft/world/entity/player/Player;Lnet/minecraft/world/level/Level;Lnet/minecraft/core/BlockPos;Lnet/minecraft/world/phys/BlockHitResult;Lnet/minecraft/world/item/ItemStack;)Z", 
             at = @At("HEAD"), 
             cancellable = true,
@@ -39,25 +46,9 @@ public abstract class BucketItemMixin {
             return;
         }
 
-        StructureCache cache = StructuresTweaker.getStructureCache();
-        if (cache == null) {
-            return;
-        }
-
-        ResourceLocation structureId = cache.getStructureAtPosition(level, pos);
-        if (structureId == null) {
-            return;
-        }
-
-        DynamicStructureFlags flags = handler.structureFlags.get(structureId);
-        if (flags != null) {
-            if (player.isCreative() && flags.creativeBypass()) {
-                return;
-            }
-            
-            if (!flags.canPlaceBlocks()) {
-                cir.setReturnValue(false);
-            }
+        QueryContext.begin().block(content.defaultFluidState().createLegacyBlock().getBlock());
+        if (handler.query(level, pos, StructureAction.FLUID_PLACE, player) == Verdict.DENY) {
+            cir.setReturnValue(false);
         }
     }
 }
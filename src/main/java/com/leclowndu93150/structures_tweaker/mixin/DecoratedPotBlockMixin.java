@@ -1,11 +1,11 @@
 package com.leclowndu93150.structures_tweaker.mixin;
 
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
-import com.leclowndu93150.structures_tweaker.cache.StructureCache;
-import com.leclowndu93150.structures_tweaker.events.DynamicStructureFlags;
+import com.leclowndu93150.structures_tweaker.events.QueryContext;
+import com.leclowndu93150.structures_tweaker.events.StructureAction;
 import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
+import com.leclowndu93150.structures_tweaker.events.Verdict;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.ItemInteractionResult;
@@ -35,25 +35,13 @@ public abstract class DecoratedPotBlockMixin {
             return;
         }
 
-        StructureCache cache = StructuresTweaker.getStructureCache();
-        if (cache == null) {
-            return;
-        }
-
-        ResourceLocation structureId = cache.getStructureAtPosition(level, pos);
-        if (structureId == null) {
-            return;
-        }
-
-        DynamicStructureFlags flags = handler.structureFlags.get(structureId);
-        if (flags != null) {
-            if (player.isCreative() && flags.creativeBypass()) {
-                return;
-            }
-            
-            if (!flags.canInteract()) {
-                cir.setReturnValue(ItemInteractionResult.FAIL);
-            }
+        QueryContext.begin().block(state.getBlock()).item(stack);
+        Verdict verdict = handler.query(level, pos, StructureAction.INTERACT, player);
+        if (verdict == Verdict.DENY) {
+            cir.setReturnValue(ItemInteractionResult.FAIL);
+        } else if (verdict == Verdict.USE_ITEM_ONLY) {
+            // Keep the item out of the pot but let it be placed as a block
+            cir.setReturnValue(ItemInteractionResult.SKIP_DEFAULT_BLOCK_INTERACTION);
         }
     }
 }
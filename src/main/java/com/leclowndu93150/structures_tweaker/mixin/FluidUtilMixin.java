@@ -1,11 +1,11 @@
 package com.leclowndu93150.structures_tweaker.mixin;
 
 import com.leclowndu93150.structures_tweaker.StructuresTweaker;
-import com.leclowndu93150.structures_tweaker.cache.StructureCache;
-import com.leclowndu93150.structures_tweaker.events.DynamicStructureFlags;
+import com.leclowndu93150.structures_tweaker.events.QueryContext;
+import com.leclowndu93150.structures_tweaker.events.StructureAction;
 import com.leclowndu93150.structures_tweaker.events.StructureEventHandler;
+import com.leclowndu93150.structures_tweaker.events.Verdict;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.entity.player.Player;
@@ -40,25 +40,9 @@ public abstract class FluidUtilMixin {
             return;
         }
 
-        StructureCache cache = StructuresTweaker.getStructureCache();
-        if (cache == null) {
-            return;
-        }
-
-        ResourceLocation structureId = cache.getStructureAtPosition(level, pos);
-        if (structureId == null) {
-            return;
-        }
-
-        DynamicStructureFlags flags = handler.structureFlags.get(structureId);
-        if (flags != null) {
-            if (player.isCreative() && flags.creativeBypass()) {
-                return;
-            }
-
-            if (!flags.canPlaceBlocks()) {
-                cir.setReturnValue(false);
-            }
+        QueryContext.begin().block(resource.getFluid().defaultFluidState().createLegacyBlock().getBlock());
+        if (handler.query(level, pos, StructureAction.FLUID_PLACE, player) == Verdict.DENY) {
+            cir.setReturnValue(false);
         }
     }
 }
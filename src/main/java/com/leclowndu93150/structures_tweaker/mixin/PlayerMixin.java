@@ -13,7 +13,7 @@ public abstract class PlayerMixin {
     @Inject(method = "tryToStartFallFlying", at = @At("HEAD"), cancellable = true)
     private void onStartFallFlying(CallbackInfoReturnable<Boolean> cir) {
         Player player = (Player)(Object)this;
-        if (StructureEventHandler.shouldCancelElytraFlight(player.level(), player.blockPosition())) {
+        if (StructureEventHandler.shouldCancelElytraFlight(player)) {
             cir.setReturnValue(Boolean.FALSE);
             player.displayClientMessage(Component.translatable("message.structures_tweaker.no_elytra"), true);
         }